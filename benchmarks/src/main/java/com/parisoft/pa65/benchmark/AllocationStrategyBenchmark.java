@@ -0,0 +1,117 @@
+package com.parisoft.pa65.benchmark;
+
+import com.parisoft.pa65.PA65;
+import com.parisoft.pa65.heap.AllocationStrategy;
+import com.parisoft.pa65.parser.SourceParser;
+import com.parisoft.pa65.pojo.SourceFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+// Time of the allocator with each strategy over a generated project. The size of each segment does not change between
+// runs, so it is printed once per strategy, after the measurements:
+// java -jar benchmarks/target/benchmarks.jar AllocationStrategyBenchmark -p functions=500
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AllocationStrategyBenchmark {
+
+    @Param({"first-fit", "best-fit", "worst-fit", "largest-first"})
+    String strategy;
+
+    @Param("200")
+    int functions;
+
+    @Param("3")
+    int fanOut;
+
+    @Param("8")
+    int depth;
+
+    @Param("4")
+    int allocs;
+
+    @Param("0.2")
+    double prefs;
+
+    @Param("2")
+    int segments;
+
+    private Path dir;
+    private List<SourceFile> sources;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("pa65-benchmark");
+        List<File> files = new ProjectGenerator()
+                .functions(functions)
+                .fanOut(fanOut)
+                .depth(depth)
+                .allocs(allocs)
+                .prefs(prefs)
+                .segments(segments)
+                .generate(dir);
+        sources = PA65.parse(files, 1, new SourceParser());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        PA65 pa65 = newModel();
+        pa65.createHeap();
+        System.out.println();
+        System.out.println(strategy + ": peaks " + pa65.getHeap().getPeaksBySegment() + ", sizes " + pa65.getHeap().getSizesBySegment()
+                                   + ", total " + pa65.getTotalSize() + ", " + pa65.getRestarts() + " restarts");
+
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private PA65 newModel() {
+        PA65 pa65 = new PA65(sources);
+        pa65.setStrategy(AllocationStrategy.of(strategy));
+
+        return pa65;
+    }
+
+    // a model with the strategy that was not allocated yet, built again before each call to createHeap
+    @State(Scope.Thread)
+    public static class Unallocated {
+
+        PA65 pa65;
+
+        @Setup(Level.Invocation)
+        public void setUp(AllocationStrategyBenchmark benchmark) {
+            pa65 = benchmark.newModel();
+        }
+    }
+
+    @Benchmark
+    public PA65 createHeap(Unallocated unallocated) {
+        unallocated.pa65.createHeap();
+        return unallocated.pa65;
+    }
+}
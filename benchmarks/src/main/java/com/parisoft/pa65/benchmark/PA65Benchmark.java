@@ -0,0 +1,164 @@
+package com.parisoft.pa65.benchmark;
+
+import com.parisoft.pa65.PA65;
+import com.parisoft.pa65.output.Scopes;
+import com.parisoft.pa65.output.Segments;
+import com.parisoft.pa65.parser.SourceParser;
+import com.parisoft.pa65.pojo.SourceFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+// Each phase of pa65 on its own, over a generated project, so a regression shows in the phase that caused it:
+// java -jar benchmarks/target/benchmarks.jar -p functions=1000
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PA65Benchmark {
+
+    @Param("200")
+    int functions;
+
+    @Param("3")
+    int fanOut;
+
+    @Param("8")
+    int depth;
+
+    @Param("4")
+    int allocs;
+
+    @Param("0.2")
+    double prefs;
+
+    @Param("0")
+    int tableSize;
+
+    @Param("2")
+    int segments;
+
+    private Path dir;
+    private List<File> files;
+    private List<SourceFile> sources;
+    private PA65 allocated; // heap already created, for the output benchmarks
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("pa65-benchmark");
+        files = new ProjectGenerator()
+                .functions(functions)
+                .fanOut(fanOut)
+                .depth(depth)
+                .allocs(allocs)
+                .prefs(prefs)
+                .tableSize(tableSize)
+                .segments(segments)
+                .generate(dir);
+        sources = PA65.parse(files, 1, new SourceParser());
+        allocated = new PA65(sources);
+        allocated.createHeap();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    // a model that was not allocated yet, built again before each call to createHeap
+    @State(Scope.Thread)
+    public static class Unallocated {
+
+        PA65 pa65;
+
+        @Setup(Level.Invocation)
+        public void setUp(PA65Benchmark benchmark) {
+            pa65 = new PA65(benchmark.sources);
+        }
+    }
+
+    @Benchmark
+    public List<SourceFile> parse() throws IOException {
+        return PA65.parse(files, 1, new SourceParser());
+    }
+
+    @Benchmark
+    public PA65 createHeap(Unallocated unallocated) throws Exception {
+        unallocated.pa65.createHeap();
+        return unallocated.pa65;
+    }
+
+    @Benchmark
+    public String segments() {
+        return new Segments(allocated.getHeap()).toString();
+    }
+
+    @Benchmark
+    public String scopes() {
+        return new Scopes(allocated.getHeap()).toString();
+    }
+
+    @Benchmark
+    public void stackTrace(Blackhole blackhole) throws IOException {
+        allocated.printStackTrace(new BlackholeWriter(blackhole), false);
+    }
+
+    @Benchmark
+    public void compressedStackTrace(Blackhole blackhole) throws IOException {
+        allocated.printStackTrace(new BlackholeWriter(blackhole), true);
+    }
+
+    // the tree can be too large to keep, so it is consumed as it is written
+    private static class BlackholeWriter extends Writer {
+
+        private final Blackhole blackhole;
+
+        BlackholeWriter(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            blackhole.consume(chars);
+        }
+
+        @Override
+        public void write(String string) {
+            blackhole.consume(string);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
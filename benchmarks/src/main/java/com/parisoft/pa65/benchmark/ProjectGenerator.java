@@ -0,0 +1,172 @@
+package com.parisoft.pa65.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Writes a synthetic ca65 project: functions in layers, each calling random functions of the next layer, so the call
+// tree has the given depth and fan-out. The same parameters and seed always give the same project.
+public class ProjectGenerator {
+
+    private static final int FUNCTIONS_PER_FILE = 100;
+
+    private int functions = 200;
+    private int fanOut = 3; // calls of each function
+    private int depth = 8; // layers of the call tree
+    private int allocs = 4; // .palloc of each function
+    private double prefs = 0.2; // chance of a function to .pref a variable of each of its callees
+    private int tableSize = 0; // functions in the .ftable of each function, 0 for no tables
+    private int segments = 2;
+    private long seed = 0;
+
+    public ProjectGenerator functions(int functions) {
+        this.functions = functions;
+        return this;
+    }
+
+    public ProjectGenerator fanOut(int fanOut) {
+        this.fanOut = fanOut;
+        return this;
+    }
+
+    public ProjectGenerator depth(int depth) {
+        this.depth = depth;
+        return this;
+    }
+
+    public ProjectGenerator allocs(int allocs) {
+        this.allocs = allocs;
+        return this;
+    }
+
+    public ProjectGenerator prefs(double prefs) {
+        this.prefs = prefs;
+        return this;
+    }
+
+    public ProjectGenerator tableSize(int tableSize) {
+        this.tableSize = tableSize;
+        return this;
+    }
+
+    public ProjectGenerator segments(int segments) {
+        this.segments = segments;
+        return this;
+    }
+
+    public ProjectGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    // the source files, in the order they should be given to pa65
+    public List<File> generate(Path dir) throws IOException {
+        Random random = new Random(seed);
+        List<File> files = new ArrayList<>();
+        int layers = Math.max(1, Math.min(depth, functions));
+
+        for (int first = 0; first < functions; first += FUNCTIONS_PER_FILE) {
+            File file = dir.resolve("src" + files.size() + ".s").toFile();
+
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath()))) {
+                out.println(".linecont+");
+                out.println();
+
+                for (int function = first; function < Math.min(first + FUNCTIONS_PER_FILE, functions); function++) {
+                    writeFunction(out, function, layers, random);
+                }
+            }
+
+            files.add(file);
+        }
+
+        return files;
+    }
+
+    private void writeFunction(PrintWriter out, int function, int layers, Random random) {
+        int layer = layerOf(function, layers);
+        List<Integer> callees = new ArrayList<>();
+
+        if (layer < layers - 1) {
+            for (int i = 0; i < fanOut; i++) {
+                callees.add(pick(layer + 1, layers, random));
+            }
+        }
+
+        out.println(".func " + nameOf(function));
+
+        for (int i = 0; i < Math.max(1, allocs); i++) { // every function has var0, so any of them can be referred
+            out.println(".palloc " + segmentOf(random.nextInt(segments)) + ", var" + i + ", " + (1 + random.nextInt(8)));
+        }
+
+        for (int i = 0; i < callees.size(); i++) {
+            if (random.nextDouble() < prefs) {
+                out.println(".pref ref" + i + ", " + nameOf(callees.get(i)) + "::var0");
+            }
+        }
+
+        for (int callee : callees) {
+            out.println("\tjsr " + nameOf(callee));
+
+            if (allocs > 1 && random.nextInt(4) == 0) {
+                out.println(".pfree var" + random.nextInt(allocs));
+            }
+        }
+
+        if (tableSize > 0 && layer < layers - 1) {
+            out.println("\tldx var0");
+            out.println("\tjtx " + tableOf(function));
+        } else {
+            out.println("\trts");
+        }
+
+        out.println(".endfunc");
+        out.println();
+
+        if (tableSize > 0 && layer < layers - 1) {
+            out.println(".ftable " + tableOf(function) + ", {\\");
+
+            for (int i = 0; i < tableSize; i++) {
+                out.println("\t" + nameOf(pick(layer + 1, layers, random)) + "-1" + (i < tableSize - 1 ? ",\\" : "\\"));
+            }
+
+            out.println("}");
+            out.println();
+        }
+    }
+
+    // function n is in layer n % layers
+    private int layerOf(int function, int layers) {
+        return function % layers;
+    }
+
+    private int pick(int layer, int layers, Random random) {
+        int count = (functions - 1 - layer) / layers + 1;
+
+        return layer + random.nextInt(count) * layers;
+    }
+
+    private static String nameOf(int function) {
+        return "func" + function;
+    }
+
+    private static String tableOf(int function) {
+        return "table" + function;
+    }
+
+    private static String segmentOf(int segment) {
+        switch (segment) {
+            case 0:
+                return ".zeropage";
+            case 1:
+                return ".bss";
+            default:
+                return "\"RAM" + (segment - 1) + "\"";
+        }
+    }
+}
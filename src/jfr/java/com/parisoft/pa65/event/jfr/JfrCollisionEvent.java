@@ -0,0 +1,36 @@
+package com.parisoft.pa65.event.jfr;
+
+import com.parisoft.pa65.event.CollisionEvent;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.parisoft.pa65.Collision")
+@Label("Allocation Collision")
+@Category("pa65")
+@StackTrace(false)
+class JfrCollisionEvent extends Event implements CollisionEvent {
+
+    @Label("Segment")
+    String segment;
+
+    @Label("Variable")
+    String variable;
+
+    @Label("Other Variable")
+    String other;
+
+    @Label("Offset")
+    int offset;
+
+    @Override
+    public void commit(String segment, String variable, String other, int offset) {
+        this.segment = segment;
+        this.variable = variable;
+        this.other = other;
+        this.offset = offset;
+        commit();
+    }
+}
@@ -0,0 +1,31 @@
+package com.parisoft.pa65.event.jfr;
+
+import com.parisoft.pa65.event.CollisionEvent;
+import com.parisoft.pa65.event.EventFactory;
+import com.parisoft.pa65.event.HeapPassEvent;
+import com.parisoft.pa65.event.OutputEvent;
+import com.parisoft.pa65.event.ParseEvent;
+
+// Loaded by Events when JFR is in the runtime
+public class JfrEventFactory implements EventFactory {
+
+    @Override
+    public ParseEvent newParseEvent() {
+        return new JfrParseEvent();
+    }
+
+    @Override
+    public HeapPassEvent newHeapPassEvent() {
+        return new JfrHeapPassEvent();
+    }
+
+    @Override
+    public OutputEvent newOutputEvent() {
+        return new JfrOutputEvent();
+    }
+
+    @Override
+    public CollisionEvent newCollisionEvent() {
+        return new JfrCollisionEvent();
+    }
+}
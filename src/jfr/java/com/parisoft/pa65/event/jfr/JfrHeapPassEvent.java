@@ -0,0 +1,38 @@
+package com.parisoft.pa65.event.jfr;
+
+import com.parisoft.pa65.event.HeapPassEvent;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.parisoft.pa65.HeapPass")
+@Label("Heap Pass")
+@Category("pa65")
+class JfrHeapPassEvent extends Event implements HeapPassEvent {
+
+    @Label("Pass")
+    int pass;
+
+    @Label("Allocations")
+    int allocations;
+
+    @Label("Collisions Repaired")
+    int repairs;
+
+    @Label("Restarted")
+    boolean restarted;
+
+    @Label("Excludent Pairs")
+    int excludents;
+
+    @Override
+    public void commit(int pass, int allocations, int repairs, boolean restarted, int excludents) {
+        this.pass = pass;
+        this.allocations = allocations;
+        this.repairs = repairs;
+        this.restarted = restarted;
+        this.excludents = excludents;
+        commit();
+    }
+}
@@ -0,0 +1,26 @@
+package com.parisoft.pa65.event.jfr;
+
+import com.parisoft.pa65.event.OutputEvent;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.parisoft.pa65.Output")
+@Label("Output Section")
+@Category("pa65")
+class JfrOutputEvent extends Event implements OutputEvent {
+
+    @Label("Section")
+    String section;
+
+    @Label("Characters")
+    long chars;
+
+    @Override
+    public void commit(String section, long chars) {
+        this.section = section;
+        this.chars = chars;
+        commit();
+    }
+}
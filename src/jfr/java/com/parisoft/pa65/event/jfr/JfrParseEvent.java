@@ -0,0 +1,34 @@
+package com.parisoft.pa65.event.jfr;
+
+import com.parisoft.pa65.event.ParseEvent;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.parisoft.pa65.Parse")
+@Label("Parse File")
+@Category("pa65")
+class JfrParseEvent extends Event implements ParseEvent {
+
+    @Label("File")
+    String file;
+
+    @Label("Lines")
+    int lines;
+
+    @Label("Functions")
+    int functions;
+
+    @Label("Cached")
+    boolean cached;
+
+    @Override
+    public void commit(String file, int lines, int functions, boolean cached) {
+        this.file = file;
+        this.lines = lines;
+        this.functions = functions;
+        this.cached = cached;
+        commit();
+    }
+}
@@ -1,76 +1,196 @@
 package com.parisoft.pa65;
 
+import com.parisoft.pa65.event.Events;
+import com.parisoft.pa65.event.HeapPassEvent;
+import com.parisoft.pa65.event.OutputEvent;
+import com.parisoft.pa65.heap.AllocationStrategy;
 import com.parisoft.pa65.heap.Heap;
 import com.parisoft.pa65.output.Macros;
+import com.parisoft.pa65.output.OutputFile;
 import com.parisoft.pa65.output.Scopes;
 import com.parisoft.pa65.output.Segments;
 import com.parisoft.pa65.output.StackTrace;
+import com.parisoft.pa65.parser.ParseCache;
+import com.parisoft.pa65.parser.SourceParser;
 import com.parisoft.pa65.pojo.Alloc;
 import com.parisoft.pa65.pojo.Call;
+import com.parisoft.pa65.pojo.Code;
 import com.parisoft.pa65.pojo.Free;
 import com.parisoft.pa65.pojo.Function;
 import com.parisoft.pa65.pojo.Ref;
+import com.parisoft.pa65.pojo.SourceFile;
+import com.parisoft.pa65.pojo.Summary;
+import com.parisoft.pa65.util.CallGraph;
+import com.parisoft.pa65.util.Stats;
+import com.parisoft.pa65.util.SymbolTable;
 import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.ArgumentParserException;
 import net.sourceforge.argparse4j.inf.Namespace;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FilterWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BinaryOperator;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.LongStream;
 
-import static com.parisoft.pa65.util.VariableUtils.absNameOf;
+import static com.parisoft.pa65.util.VariableUtils.functionOf;
+import static java.lang.System.lineSeparator;
 import static java.nio.file.StandardOpenOption.CREATE;
 import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
-import static java.util.regex.Pattern.CASE_INSENSITIVE;
+import static java.util.Comparator.comparing;
+import static java.util.Comparator.comparingInt;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.stream.Collectors.toList;
 
 public class PA65 {
 
-    private static final Pattern FUNC_OPEN_PATTERN = Pattern.compile("\\.func\\s+([^;\\\\*]+).*", CASE_INSENSITIVE);
-    private static final Pattern FUNC_CLOSE_PATTERN = Pattern.compile("\\.endfunc([\\s;\\\\*]+.*)?", CASE_INSENSITIVE);
-    private static final Pattern ALLOC_PATTERN = Pattern.compile("(?:@?\\w*:?\\s*)?\\.palloc\\s+([^,\\s]+)\\s*,\\s*(\\w+)\\s*,\\s*([\\d$%]+).*", CASE_INSENSITIVE);
-    private static final Pattern REF_PATTERN = Pattern.compile("(?:@?\\w*:?\\s*)?\\.pref\\s+(\\w+)\\s*,\\s*(\\w+::\\w+).*", CASE_INSENSITIVE);
-    private static final Pattern CALL_PATTERN = Pattern.compile("(?:@?\\w*:?\\s*)?(jsr|jmp|jsl|jml|jeq|jne|jmi|jpl|jcs|jcc|jvs|jvc|jtx|jty)\\s+(\\w+)(?:[\\s;\\\\*]+.*)?", CASE_INSENSITIVE);
-    private static final Pattern TABLE_PATTERN = Pattern.compile("(?:@?\\w*:?\\s*)?\\.ftable\\s+(\\w+)\\s*,\\s*\\{?\\s*(\\s*,?\\s*\\w+)*[}\\\\]?(?:[\\s;\\\\*]+.*)?", CASE_INSENSITIVE);
-    private static final Pattern FREE_PATTERN = Pattern.compile("(?:@?\\w*:?\\s*)?\\.pfree(?:\\s+(\\w+)(?:\\s*,\\s*(\\w+))*)?(?:[\\s;\\\\*]+.*)?", CASE_INSENSITIVE);
-    private static final Pattern COMMA_PATTERN = Pattern.compile(",");
-
-    private final Heap heap = new Heap();
-    private final Map<String, Function> functions = new LinkedHashMap<>();
+    private final SymbolTable symbols = new SymbolTable();
+    private final Heap heap = new Heap(symbols);
+    private final List<Alloc> allocTable = new ArrayList<>(); // every different .palloc of the program
+    private final List<Ref> refTable = new ArrayList<>(); // every .pref of the program
+    private final List<List<String>> freeTable = new ArrayList<>(); // variables of every .pfree of the program that names them
+    private final Map<String, Object> declarations = new HashMap<>(); // first .palloc or .pref of each variable
+    private final Map<String, Alloc> allocs = new HashMap<>(); // resolved .pref chains, null if the chain dangles
+    private final Set<String> warnings = new LinkedHashSet<>(); // printed by the caller, once for all the tries of a search
+    private final Map<String, List<String>> pointersByTarget = new HashMap<>(); // source variables of every .pref
+    private final Map<String, BitSet> ownersByVariable = new HashMap<>();
+    private final CallGraph graph;
+    private final Function[] functions; // by call graph id, only the names
+    private final Code[] codes; // by call graph id
+    private final int[] active; // times each function is on the stack of the heap
+    private final Summary[] summaries;
+    private int replays;
+    private int passes;
+    private final Map<String, Object> counts = new LinkedHashMap<>(); // of the input, for the stats
     private final List<String> vectors;
+    private List<String> order; // vectors in the order they are walked
+    private long seed; // of the shuffle of the vectors and calls, 0 for the order of the sources
 
     public PA65(Collection<File> input) throws IOException {
-        parseFunctions(input);
+        this(parse(input, Runtime.getRuntime().availableProcessors(), new SourceParser()));
+    }
+
+    public PA65(List<SourceFile> sources) {
+        Map<String, Function> parsed = addFunctions(sources);
+
+        parsed.values()
+                .forEach(function -> function.getStmts().removeIf(o -> o instanceof Call && !parsed.containsKey(((Call) o).getFunction())));
+
+        Map<String, Integer> statements = new LinkedHashMap<>();
+        asList(".palloc", ".pref", "call", ".pfree").forEach(type -> statements.put(type, 0));
+
+        for (Function function : parsed.values()) { // the excludents are walked in the order the variables are allocated
+            for (Object stmt : function.getStmts()) {
+                if (stmt instanceof Alloc) {
+                    symbols.idOf(((Alloc) stmt).getVariable());
+                }
+
+                statements.merge(stmt instanceof Alloc ? ".palloc" : stmt instanceof Ref ? ".pref" : stmt instanceof Call ? "call" : ".pfree", 1, Integer::sum);
+            }
+        }
+
+        counts.put("files", sources.size());
+        counts.put("lines", sources.stream().mapToLong(SourceFile::getLines).sum());
+        counts.put("functions", parsed.size());
+        counts.put("statements", statements);
+
+        this.graph = new CallGraph(parsed.values());
+        this.functions = new Function[graph.size()];
+        this.codes = new Code[graph.size()];
+
+        Map<List<Object>, Integer> allocIndexes = new HashMap<>();
+
+        for (Function function : parsed.values()) { // the parsed statements are not kept, only their code
+            int id = graph.idOf(function.getName());
+            functions[id] = new Function(function.getName());
+            codes[id] = compile(function, allocIndexes);
+        }
 
-        functions.values()
-                .forEach(function -> function.getStmts().removeIf(o -> o instanceof Call && !functions.containsKey(((Call) o).getFunction())));
+        this.active = new int[graph.size()];
+        this.summaries = new Summary[graph.size()];
+        this.vectors = graph.getEntryPoints();
+        this.order = vectors;
+    }
+
+    // every name is taken from the symbol table, so the statements of all functions share one string per name
+    private Code compile(Function function, Map<List<Object>, Integer> allocIndexes) {
+        Code code = new Code();
+
+        for (Object stmt : function.getStmts()) {
+            if (stmt instanceof Alloc) {
+                Alloc alloc = (Alloc) stmt;
+                String variable = internOf(alloc.getVariable());
+                int index = allocIndexes.computeIfAbsent(asList(alloc.getSegment(), variable, alloc.getSize()), key -> {
+                    allocTable.add(new Alloc(alloc.getSegment().intern(), variable, alloc.getSize()));
+                    return allocTable.size() - 1;
+                });
+
+                declarations.putIfAbsent(variable, allocTable.get(index));
+                code.add(Code.ALLOC, index);
+            } else if (stmt instanceof Ref) {
+                Ref ref = new Ref(internOf(((Ref) stmt).getSourceVar()), internOf(((Ref) stmt).getTargetVar()));
+
+                refTable.add(ref);
+                declarations.putIfAbsent(ref.getSourceVar(), ref);
+                pointersByTarget.computeIfAbsent(ref.getTargetVar(), s -> new ArrayList<>()).add(ref.getSourceVar());
+                code.add(Code.REF, refTable.size() - 1);
+            } else if (stmt instanceof Call) {
+                code.add(Code.CALL, graph.idOf(((Call) stmt).getFunction()));
+            } else if (stmt instanceof Free) {
+                List<String> variables = ((Free) stmt).getVariables().stream().map(this::internOf).collect(toList());
+
+                if (variables.isEmpty()) {
+                    code.add(Code.FREE, -1);
+                } else {
+                    freeTable.add(variables);
+                    code.add(Code.FREE, freeTable.size() - 1);
+                }
+            }
+        }
 
-        List<String> referenced = functions.values()
-                .stream()
-                .map(Function::getStmts)
-                .flatMap(List::stream)
-                .filter(o -> o instanceof Call)
-                .map(o -> ((Call) o).getFunction())
-                .collect(toList());
+        code.trim();
 
-        this.vectors = functions.keySet()
-                .stream()
-                .filter(func -> !referenced.contains(func))
-                .collect(toList());
+        return code;
+    }
+
+    private String internOf(String name) {
+        return symbols.nameOf(symbols.idOf(name));
     }
 
     public String output() {
@@ -79,172 +199,475 @@ public class PA65 {
                 + new Macros(vectors.get(0));
     }
 
+    public void output(Writer writer) throws IOException {
+        print("Segments", new Segments(heap)::print, writer);
+        print("Scopes", new Scopes(heap)::print, writer);
+        print("Macros", new Macros(vectors.get(0))::print, writer);
+        writer.flush();
+    }
+
+    private static void print(String section, OutputFile.Content content, Writer writer) throws IOException {
+        OutputEvent event = Events.newOutputEvent();
+
+        if (event == null || !event.isEnabled()) {
+            content.print(writer);
+            return;
+        }
+
+        long[] chars = new long[1];
+        event.begin();
+        content.print(new FilterWriter(writer) { // counts what goes through
+            @Override
+            public void write(int c) throws IOException {
+                super.write(c);
+                chars[0]++;
+            }
+
+            @Override
+            public void write(char[] buffer, int offset, int length) throws IOException {
+                super.write(buffer, offset, length);
+                chars[0] += length;
+            }
+
+            @Override
+            public void write(String string, int offset, int length) throws IOException {
+                super.write(string, offset, length);
+                chars[0] += length;
+            }
+        });
+        event.commit(section, chars[0]);
+    }
+
     public String getStackTrace() {
-        return new StackTrace(functions.values(), vectors).print();
+        return new StackTrace(graph, vectors).print();
+    }
+
+    public void printStackTrace(Writer writer, boolean compressed) throws IOException {
+        new StackTrace(graph, vectors, compressed).print(writer);
     }
 
     public void createHeap() {
         int pass = 0;
 
         while (pass++ < 2) {
+            HeapPassEvent event = Events.newHeapPassEvent();
+            int allocations = heap.getAllocations();
+            int repairs = heap.getRepairs();
+            boolean restarted = false;
+            passes++;
+
+            if (event != null) {
+                event.begin();
+            }
+
             try {
-                for (String vector : vectors) {
-                    Function function = functions.values()
-                            .stream()
-                            .filter(func -> func.getName().equals(vector))
-                            .findFirst()
-                            .orElseThrow(() -> new IllegalArgumentException("Vector function not found: " + vector));
-
-                    processFunction(function);
+                for (String vector : order) {
+                    processFunction(graph.idOf(vector));
                 }
-            } catch (Heap.AllocCollisionException e) {
-                heap.clear();
+            } catch (Heap.AllocCollisionException e) { // a collision that is better solved from scratch
+                heap.restart();
+                Arrays.fill(active, 0);
                 pass--;
+                restarted = true;
+            }
+
+            if (event != null && event.shouldCommit()) {
+                event.commit(passes, heap.getAllocations() - allocations, heap.getRepairs() - repairs, restarted, heap.getExcludents());
             }
         }
     }
 
-    private void processFunction(Function function) throws Heap.AllocCollisionException {
-        for (Object stmt : function.getStmts()) {
-            if (stmt instanceof Alloc) {
-                heap.allocByFirstFit((Alloc) stmt);
-            } else if (stmt instanceof Ref) {
-                heap.addReference(function, (Ref) stmt);
-                Optional<Alloc> alloc = allocOf((Ref) stmt);
+    // walks the vectors and each run of calls in an order given by the seed, must be called before createHeap
+    public void shuffle(long seed) {
+        this.seed = seed;
 
-                if (alloc.isPresent()) {
-                    heap.allocByFirstFit(alloc.get());
-                }
-            } else if (stmt instanceof Free) {
-                if (((Free) stmt).getVariables().isEmpty()) {
-                    heap.free();
-                } else {
-                    heap.free(((Free) stmt).getVariables());
-                    List<String> referencedVars = heap.getRefsByFunction().getOrDefault(function.getName(), emptyList())
-                            .stream()
-                            .filter(ref -> ((Free) stmt).getVariables().contains(ref.getSourceVar()))
-                            .map(this::allocOf)
-                            .filter(Optional::isPresent)
-                            .map(Optional::get)
-                            .map(Alloc::getVariable)
-                            .collect(toList());
-                    heap.free(referencedVars);
-                }
-            } else if (stmt instanceof Call) {
-                Function called = functions.get(((Call) stmt).getFunction());
+        if (seed == 0) {
+            return;
+        }
 
-                if (called == null) { // skip if not declared as .func
-                    ((Call) stmt).setInvalid(true);
-                    continue;
-                }
+        Random random = new Random(seed);
+        order = new ArrayList<>(vectors);
+        Collections.shuffle(order, random);
 
-                ArrayDeque<Function> stack = heap.getStack();
+        for (Code code : codes) {
+            code.shuffleCalls(random);
+        }
+    }
 
-                if (stack.contains(called)) { // skip on recursion
-                    continue;
-                }
+    // checks the execution heaps as they change, which is slow
+    public void setVerify(boolean verify) {
+        heap.setVerify(verify);
+    }
+
+    // starts over at most the times given on the collisions that grow a segment, must be called before createHeap
+    public void setMaxRestarts(int maxRestarts) {
+        heap.setMaxRestarts(maxRestarts);
+    }
 
-                stack.push(function);
-                processFunction(called);
-                stack.poll();
+    // true if a segment grew as no restarts were left
+    public boolean isCapped() {
+        return heap.isCapped();
+    }
+
+    // places the variables with the strategy, must be called before createHeap
+    public void setStrategy(AllocationStrategy strategy) {
+        Comparator<Alloc> order = strategy.getAllocOrder();
+        heap.setStrategy(strategy);
+
+        if (order != null) {
+            for (Code code : codes) {
+                code.sortAllocs(comparing(allocTable::get, order));
+            }
+        }
+    }
+
+    // creates the heap with the seeds from 0 to tries - 1 and keeps the smallest, zero page size and seed break ties
+    public static PA65 search(List<SourceFile> sources, String strategy, int tries, int maxRestarts, boolean verify, int jobs) throws IOException {
+        AtomicReference<PA65> best = new AtomicReference<>();
+        BinaryOperator<PA65> smaller = BinaryOperator.minBy(comparingInt(PA65::getTotalSize)
+                                                                    .thenComparingInt(PA65::getZeroPageSize)
+                                                                    .thenComparingLong(PA65::getSeed));
+
+        invokeAll(LongStream.range(0, tries)
+                          .mapToObj(seed -> (Callable<PA65>) () -> {
+                              PA65 pa65 = new PA65(sources);
+                              pa65.setStrategy(AllocationStrategy.of(strategy));
+                              pa65.setMaxRestarts(maxRestarts);
+                              pa65.setVerify(verify);
+                              pa65.shuffle(seed);
+                              pa65.createHeap();
+                              best.accumulateAndGet(pa65, (a, b) -> a == null ? b : smaller.apply(a, b)); // only the best is kept
+
+                              return null;
+                          })
+                          .collect(toList()), jobs);
+
+        return best.get();
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getTotalSize() {
+        return heap.getSizesBySegment().values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    public int getZeroPageSize() {
+        return heap.getSizesBySegment().entrySet().stream().filter(entry -> Heap.isZeroPage(entry.getKey())).mapToInt(Map.Entry::getValue).sum();
+    }
+
+    public Set<String> getWarnings() {
+        return warnings;
+    }
+
+    public Heap getHeap() {
+        return heap;
+    }
+
+    public void addStats(Stats stats) {
+        counts.forEach((key, value) -> stats.put("input", key, value));
+        stats.put("heap", "strategy", heap.getStrategy().getName());
+        stats.put("heap", "seed", seed);
+        stats.put("heap", "passes", passes);
+        stats.put("heap", "allocations", heap.getAllocations());
+        stats.put("heap", "collisions_repaired", heap.getRepairs());
+        stats.put("heap", "restarts", heap.getRestarts());
+        stats.put("heap", "calls_replayed", replays);
+        stats.put("heap", "excludent_pairs", heap.getExcludents());
+        heap.getSizesBySegment().forEach((segment, size) -> {
+            Map<String, Integer> sizes = new LinkedHashMap<>();
+            sizes.put("peak", heap.getPeaksBySegment().getOrDefault(segment, 0));
+            sizes.put("size", size);
+            stats.put("segments", segment, sizes);
+        });
+    }
+
+    public int getRepairs() {
+        return heap.getRepairs();
+    }
+
+    public int getRestarts() {
+        return heap.getRestarts();
+    }
+
+    public int getReplays() {
+        return replays;
+    }
+
+    // places the variables of the segment again with the smallest size found in the time, using up to jobs threads
+    public String optimizeSegment(String segment, long budgetNanos, int jobs) {
+        return heap.optimize(segment, budgetNanos, jobs);
+    }
+
+    // places the variables again by coloring and reports the size of each segment before and after it
+    public String colorHeap() {
+        Map<String, Integer> placed = heap.getSizesBySegment();
+        StringBuilder report = new StringBuilder();
+
+        heap.color();
+        heap.getSizesBySegment().forEach((segment, size) -> report.append("Segment ").append(segment)
+                .append(": ").append(heap.getStrategy().getName()).append(" $").append(Integer.toHexString(placed.get(segment)))
+                .append(", coloring $").append(Integer.toHexString(size))
+                .append(lineSeparator()));
+
+        return report.toString();
+    }
+
+    private void processFunction(int id) throws Heap.AllocCollisionException {
+        Function function = functions[id];
+        Code code = codes[id];
+
+        for (int i = 0; i < code.size(); i++) {
+            int arg = code.argAt(i);
+
+            switch (code.opAt(i)) {
+                case Code.ALLOC:
+                    heap.alloc(allocTable.get(arg));
+                    break;
+                case Code.REF:
+                    heap.addReference(function, refTable.get(arg));
+                    Optional<Alloc> alloc = allocOf(refTable.get(arg));
+
+                    if (alloc.isPresent()) {
+                        heap.alloc(alloc.get());
+                    }
+
+                    break;
+                case Code.FREE:
+                    if (arg < 0) {
+                        heap.free();
+                    } else {
+                        List<String> variables = freeTable.get(arg);
+                        heap.free(variables);
+                        List<Ref> refs = heap.getRefsByFunction().getOrDefault(function.getName(), emptyList());
+
+                        if (refs.isEmpty()) {
+                            break;
+                        }
+
+                        List<String> referencedVars = refs.stream()
+                                .filter(ref -> variables.contains(ref.getSourceVar()))
+                                .map(this::allocOf)
+                                .filter(Optional::isPresent)
+                                .map(Optional::get)
+                                .map(Alloc::getVariable)
+                                .collect(toList());
+                        heap.free(referencedVars);
+                    }
+
+                    break;
+                case Code.CALL:
+                    call(id, arg);
+                    break;
             }
         }
 
         heap.free(function);
     }
 
-    private Optional<Alloc> allocOf(Ref ref) {
-        AtomicReference<String> target = new AtomicReference<>(ref.getTargetVar());
-        Object found;
+    private void call(int id, int calledId) throws Heap.AllocCollisionException {
+        if (graph.isRecursive(calledId) && active[calledId] > 0) { // skip on recursion
+            return;
+        }
+
+        Summary summary = summaryOf(calledId);
+        boolean detached = summary.isReplayable() && heap.isDetached(summary.getAllocs());
+        int repairs = heap.getRepairs();
 
-        while ((found = functions.values().stream()
-                .map(Function::getStmts)
-                .flatMap(List::stream).parallel()
-                .filter(o -> (o instanceof Alloc && ((Alloc) o).getVariable().equals(target.get()))
-                        || (o instanceof Ref && ((Ref) o).getSourceVar().equals(target.get())))
-                .findFirst()
-                .orElse(null)) != null && !(found instanceof Alloc)) {
-            target.set(((Ref) found).getTargetVar());
+        if (detached && summary.canReplay(heap.getRestarts(), repairs)) { // skip if walking it again changes nothing
+            heap.replay(summary.getAllocs());
+            replays++;
+            return;
         }
 
-        return Optional.ofNullable((Alloc) found);
+        heap.push(functions[id]);
+        active[id]++;
+        processFunction(calledId);
+        active[id]--;
+        heap.pop();
+        summary.walked(detached && repairs == heap.getRepairs() && heap.isOut(summary.getAllocs()), heap.getRestarts(), repairs);
     }
 
-    private void parseFunctions(Collection<File> files) throws IOException {
-        Map<String, Set<String>> tables = new LinkedHashMap<>();
+    // computed bottom-up on the first call, a function in a cycle is never replayed and neither are its callers
+    private Summary summaryOf(int id) {
+        if (summaries[id] != null) {
+            return summaries[id];
+        }
+
+        Summary summary = new Summary();
+        summaries[id] = summary;
+        summary.getFunctions().set(id);
+
+        if (graph.isRecursive(id)) {
+            summary.setReplayable(false);
+            return summary;
+        }
+
+        Code code = codes[id];
+
+        for (int i = 0; i < code.size(); i++) {
+            Alloc alloc = null;
+
+            if (code.opAt(i) == Code.ALLOC) {
+                alloc = allocTable.get(code.argAt(i));
+                // a variable allocated in different ways depends on which alloc comes first
+                summary.setReplayable(summary.isReplayable() && declarations.get(alloc.getVariable()) == alloc);
+            } else if (code.opAt(i) == Code.REF) {
+                alloc = allocOf(refTable.get(code.argAt(i)).getTargetVar());
+            }
+
+            if (alloc != null) {
+                summary.setReplayable(summary.isReplayable() && alloc.getSize() > 0);
+                addAlloc(summary, alloc);
+            }
+        }
+
+        for (int callee : graph.getCallees(id)) {
+            Summary calleeSummary = summaryOf(callee);
+            summary.setReplayable(summary.isReplayable() && calleeSummary.isReplayable());
+
+            if (summary.isReplayable()) {
+                calleeSummary.getAllocs().forEach(alloc -> addAlloc(summary, alloc));
+                summary.getFunctions().or(calleeSummary.getFunctions());
+            }
+        }
+
+        BitSet outside = (BitSet) summary.getOwners().clone();
+        outside.andNot(summary.getFunctions());
+
+        if (!outside.isEmpty() || !summary.isReplayable()) { // depends on the callers, nothing to keep
+            summary.setReplayable(false);
+            summary.getAllocs().clear();
+            summary.getVariables().clear();
+            summary.getOwners().clear();
+        }
+
+        return summary;
+    }
 
-        for (File file : files) {
-            Function function = null;
-            Matcher matcher;
+    private void addAlloc(Summary summary, Alloc alloc) {
+        int variable = symbols.idOf(alloc.getVariable());
 
-            List<String> lines = Files.readAllLines(file.toPath());
+        if (!summary.getVariables().get(variable)) {
+            summary.getVariables().set(variable);
+            summary.getAllocs().add(alloc);
+            summary.getOwners().or(ownersOf(alloc.getVariable()));
+        }
+    }
+
+    // the functions that keep the variable from being freed while on the stack, its own and the ones of its pointers
+    private BitSet ownersOf(String variable) {
+        BitSet owners = ownersByVariable.get(variable);
+
+        if (owners == null) {
+            owners = new BitSet();
+            Set<String> visited = new HashSet<>();
+            ArrayDeque<String> pending = new ArrayDeque<>();
+            pending.add(variable);
 
-            for (int i = 0; i < lines.size(); i++) {
-                String line = lines.get(i).trim();
+            while (!pending.isEmpty()) {
+                String var = pending.poll();
 
-                if (function == null) {
-                    if ((matcher = FUNC_OPEN_PATTERN.matcher(line)).matches()) {
-                        function = new Function(matcher.group(1));
-                        functions.put(function.getName(), function);
-                    } else if (!TABLE_PATTERN.matcher(line).matches()) {
-                        continue;
+                if (visited.add(var)) {
+                    int function = var.contains("::") ? graph.idOf(functionOf(var)) : -1;
+
+                    if (function >= 0) {
+                        owners.set(function);
                     }
+
+                    pending.addAll(pointersByTarget.getOrDefault(var, emptyList()));
                 }
+            }
 
-                if ((matcher = ALLOC_PATTERN.matcher(line)).matches()) {
-                    function.getStmts().add(new Alloc(matcher.group(1), absNameOf(function, matcher.group(2)), Integer.valueOf(matcher.group(3))));
-                } else if ((matcher = REF_PATTERN.matcher(line)).matches()) {
-                    function.getStmts().add(new Ref(absNameOf(function, matcher.group(1)), matcher.group(2)));
-                } else if ((matcher = CALL_PATTERN.matcher(line)).matches()) {
-                    function.getStmts().add(new Call(matcher.group(2), !matcher.group(1).equalsIgnoreCase("jsr")));
-                } else if ((matcher = FREE_PATTERN.matcher(line)).matches()) {
-                    Free free = new Free();
-                    String var1 = matcher.group(1);
-                    String var2 = matcher.group(2);
-
-                    if (var1 != null) {
-                        free.getVariables().add(absNameOf(function, var1));
-                    }
+            ownersByVariable.put(variable, owners);
+        }
 
-                    if (var2 != null) {
-                        free.getVariables().add(absNameOf(function, var2));
-                    }
+        return owners;
+    }
 
-                    String[] tokens = COMMA_PATTERN.split(line);
+    private Optional<Alloc> allocOf(Ref ref) {
+        return Optional.ofNullable(allocOf(ref.getTargetVar()));
+    }
 
-                    for (int t = 1; t < tokens.length - 1; t++) {
-                        free.getVariables().add(absNameOf(function, tokens[t].trim()));
-                    }
+    // follows the .pref chain up to the .palloc and remembers the result for every variable on the way
+    private Alloc allocOf(String variable) {
+        Set<String> chain = new LinkedHashSet<>();
+        String target = variable;
+        Alloc alloc;
 
-                    function.getStmts().add(free);
-                } else if ((matcher = TABLE_PATTERN.matcher(line)).matches()) {
-                    String tableName = matcher.group(1);
-                    Set<String> entries = tables.computeIfAbsent(tableName, s -> new HashSet<>());
+        while (true) {
+            if (allocs.containsKey(target)) {
+                alloc = allocs.get(target);
+                break;
+            }
 
-                    String subline = null;
-                    int j = i;
+            if (!chain.add(target)) {
+                throw new IllegalArgumentException("Cyclic .pref chain: " + String.join(" -> ", chain) + " -> " + target);
+            }
 
-                    do {
-                        if (subline == null) {
-                            subline = line.substring(line.indexOf(tableName) + tableName.length());
-                        } else {
-                            subline = lines.get(++j).trim();
-                        }
+            Object found = declarations.get(target);
 
-                        for (String token : COMMA_PATTERN.split(subline)) {
-                            String entry = token.trim().replaceAll("\\s*-\\s*1", "").replaceAll("\\W", "");
+            if (found instanceof Alloc) {
+                alloc = (Alloc) found;
+                break;
+            }
 
-                            if (entry.length() > 0) {
-                                entries.add(entry);
-                            }
-                        }
-                    } while (!subline.contains("}"));
+            if (found == null) {
+                warnings.add("Warning: .pref chain does not end in a .palloc: " + String.join(" -> ", chain));
+                alloc = null;
+                break;
+            }
 
-                    i = j;
-                } else if (FUNC_CLOSE_PATTERN.matcher(line).matches()) {
-                    function = null;
-                }
+            target = ((Ref) found).getTargetVar();
+        }
+
+        for (String name : chain) {
+            allocs.put(name, alloc);
+        }
+
+        return alloc;
+    }
+
+    public static List<SourceFile> parse(Collection<File> files, int jobs, SourceParser parser) throws IOException {
+        return invokeAll(files.stream()
+                                 .map(file -> (Callable<SourceFile>) () -> parser.parse(file))
+                                 .collect(toList()), jobs);
+    }
+
+    // results in the order of the tasks. A plain thread pool is used because the futures of a ForkJoinPool wrap checked
+    // exceptions and rethrow copies of the others, so the messages would not reach the user as they were thrown.
+    private static <T> List<T> invokeAll(List<Callable<T>> tasks, int jobs) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        List<T> results = new ArrayList<>(tasks.size());
+
+        try {
+            for (Future<T> future : pool.invokeAll(tasks)) {
+                results.add(getResult(future));
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return results;
+    }
+
+    private static Map<String, Function> addFunctions(List<SourceFile> sources) {
+        Map<String, Function> functions = new LinkedHashMap<>();
+        Map<String, Set<String>> tables = new LinkedHashMap<>();
+
+        // merge in input order so the result is the same as parsing one file after another
+        for (SourceFile source : sources) {
+            for (Function function : source.getFunctions()) {
+                Function copy = new Function(function.getName()); // the parsed statements are kept untouched to be merged again
+                copy.getStmts().addAll(function.getStmts());
+                functions.put(copy.getName(), copy);
+            }
+
+            source.getTables().forEach((name, entries) -> tables.computeIfAbsent(name, s -> new HashSet<>()).addAll(entries));
         }
 
         // replace call to jump tables for calls to it's functions
@@ -262,15 +685,118 @@ public class PA65 {
                 }
             }
         }
+
+        return functions;
+    }
+
+    private static <T> T getResult(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // a time like 500ms, 5s or 2m, in nanoseconds
+    static long nanosOf(String time) {
+        Matcher matcher = Pattern.compile("(\\d+)\\s*(ms|s|m)?").matcher(time.trim());
+
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid time: " + time);
+        }
+
+        long amount = Long.parseLong(matcher.group(1));
+        String unit = matcher.group(2) == null ? "s" : matcher.group(2);
+
+        return unit.equals("ms") ? MILLISECONDS.toNanos(amount) : unit.equals("s") ? SECONDS.toNanos(amount) : MINUTES.toNanos(amount);
+    }
+
+    // places the variables once, or with each seed of the search, as asked on the command line
+    static PA65 allocate(List<SourceFile> sources, Stats stats, String strategy, int search, long seed, int maxRestarts, boolean debug, int jobs) throws Exception {
+        PA65 pa65;
+
+        if (search > 1) {
+            pa65 = stats.time("allocation", () -> search(sources, strategy, search, maxRestarts, debug, jobs));
+            System.err.println("Search: seed " + pa65.getSeed() + " is the smallest of " + search + " tries with $" + Integer.toHexString(pa65.getTotalSize())
+                                       + " bytes, $" + Integer.toHexString(pa65.getZeroPageSize()) + " in zero page. Use --seed " + pa65.getSeed() + " to get it again.");
+        } else {
+            pa65 = stats.time("compile", () -> new PA65(sources));
+            pa65.setStrategy(AllocationStrategy.of(strategy));
+            pa65.setMaxRestarts(maxRestarts);
+            pa65.setVerify(debug);
+            pa65.shuffle(seed);
+            stats.time("allocation", () -> {
+                pa65.createHeap();
+                return null;
+            });
+        }
+
+        pa65.getWarnings().forEach(System.err::println);
+
+        if (pa65.isCapped()) {
+            System.err.println("Warning: --max-restarts " + maxRestarts + " reached, the segments grew to repair the collisions left");
+        }
+
+        if (debug) {
+            System.err.println("Heap: " + pa65.getRepairs() + " collisions repaired, " + pa65.getRestarts() + " restarts, " + pa65.getReplays() + " calls replayed");
+        }
+
+        return pa65;
+    }
+
+    static void report(PA65 pa65, Stats stats, boolean print, String json) throws IOException {
+        pa65.addStats(stats);
+
+        if (print) {
+            System.err.print(stats);
+        }
+
+        if (json != null) {
+            Files.write(Paths.get(json), stats.toJson().getBytes(), CREATE, TRUNCATE_EXISTING);
+        }
+    }
+
+    // the tree may be huge, so it goes to the standard output as it is walked
+    static void printStackTrace(PA65 pa65, boolean compressed) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(System.out));
+        pa65.printStackTrace(writer, compressed);
+        writer.write(lineSeparator());
+        writer.flush();
     }
 
     public static void main(String[] args) {
         ArgumentParser parser = ArgumentParsers.newFor("pa65").build()
                 .defaultHelp(true)
                 .description("Pseudo memory allocator for ca65 projects");
-        parser.addArgument("-d", "--debug").nargs("?").setDefault(false).setConst(true).choices(true, false).help("Set debug mode.");
+        parser.addArgument("-d", "--debug").nargs("?").setDefault(false).setConst(true).choices(true, false).help("Set debug mode. The execution heaps are also checked as they change, which is slow.");
         parser.addArgument("-t", "--tree").nargs("?").setDefault(false).setConst(true).choices(true, false).help("Print the execution tree.");
+        parser.addArgument("--compress-tree").action(Arguments.storeTrue()).help("Print the calls of each function in the execution tree only once. Later calls to it are marked with (see above).");
+        parser.addArgument("-j", "--jobs").type(Integer.class).choices(Arguments.range(1, Integer.MAX_VALUE)).metavar("N").setDefault(Runtime.getRuntime().availableProcessors()).help("Number of threads used to parse the input files and to run the tries of --search.");
+        parser.addArgument("--regex").action(Arguments.storeTrue()).help("Parse the input files with the former regular expressions instead of the lexer.");
+        parser.addArgument("--cache-dir").help("Directory to keep the parsed files between runs. Unchanged files are not parsed again.");
+        parser.addArgument("-w", "--watch").action(Arguments.storeTrue()).help("Keep running and generate the file again whenever an input file changes.");
+        parser.addArgument("--allocator").choices("first-fit", "coloring").setDefault("first-fit").help("How the variables are placed. coloring places them again after first-fit by coloring the graph of the variables alive at the same time, and reports the size of each segment with both.");
+        parser.addArgument("--strategy").choices(AllocationStrategy.NAMES.toArray()).setDefault("first-fit").help("Where each variable is placed in the free space: the first place it fits, the one that leaves the least (best-fit) or the most (worst-fit) room, or first-fit placing the larger variables of each function first (largest-first).");
+        parser.addArgument("--search").type(Integer.class).choices(Arguments.range(1, Integer.MAX_VALUE)).metavar("N").setDefault(1).help("Place the variables N times, walking the vectors and the calls in a different order each time with the seeds from 0 to N-1, and keep the smallest heap.");
+        parser.addArgument("--seed").type(Long.class).metavar("S").setDefault(0L).help("Walk the vectors and the calls in the order given by the seed, as reported by --search. 0 keeps the order of the input files.");
+        parser.addArgument("--max-restarts").type(Integer.class).choices(Arguments.range(0, Integer.MAX_VALUE)).metavar("N").help("Start over at most N times on the collisions that cannot be repaired without growing a segment, then grow it. Without it pa65 starts over until there are none, which can take long on large projects.");
+        parser.addArgument("--optimize-segment").metavar("SEGMENT").help("Place the variables of the segment again with the smallest size that can be found in the time given by --budget, and report how far from the optimum it is. The quotes and the leading dot of the segment name are optional, so ZEROPAGE matches both \"ZEROPAGE\" and .zeropage.");
+        parser.addArgument("--budget").metavar("TIME").setDefault("5s").help("Time to search for the layout of --optimize-segment, in ms, s or m.");
         parser.addArgument("-o", "--output").required(false).help("Path to the generated file. Omit to print the file content to the standard output.");
+        parser.addArgument("-k", "--keep-unchanged").action(Arguments.storeTrue()).help("Leave the output file untouched, modification time included, if its content would not change.");
+        parser.addArgument("--stats").action(Arguments.storeTrue()).help("Print the time of each phase and counters of the input and the allocator to the standard error. With --watch, after each generation.");
+        parser.addArgument("--stats-json").metavar("FILE").help("Write the same stats as --stats to a JSON file. With --watch, after each generation.");
         parser.addArgument("file").nargs("+").help("Input source files in ca65 format");
 
         Namespace namespace = null;
@@ -286,20 +812,73 @@ public class PA65 {
         String output = namespace.getString("output");
         boolean debug = namespace.getBoolean("debug");
         boolean tree = namespace.getBoolean("tree");
+        boolean compressTree = namespace.getBoolean("compress_tree");
+        int jobs = namespace.getInt("jobs");
+        boolean regex = namespace.getBoolean("regex");
+        String cacheDir = namespace.getString("cache_dir");
+        boolean watch = namespace.getBoolean("watch");
+        boolean coloring = namespace.getString("allocator").equals("coloring");
+        boolean keepUnchanged = namespace.getBoolean("keep_unchanged");
+        boolean printStats = namespace.getBoolean("stats");
+        String strategy = namespace.getString("strategy");
+        int search = namespace.getInt("search");
+        long seed = namespace.getLong("seed");
+        int maxRestarts = namespace.get("max_restarts") != null ? namespace.getInt("max_restarts") : Integer.MAX_VALUE;
+        String optimizeSegment = namespace.getString("optimize_segment");
+        String budget = namespace.getString("budget");
+        String statsJson = namespace.getString("stats_json");
 
         try {
-            PA65 pa65 = new PA65(input);
-            pa65.createHeap();
+            ParseCache cache = cacheDir != null ? new ParseCache(new File(cacheDir)) : null;
 
-            if (tree) {
-                System.out.println(pa65.getStackTrace());
+            if (watch) {
+                new Watcher(input, jobs, new SourceParser(regex, cache), output, tree, compressTree, strategy, coloring, search, seed, maxRestarts, optimizeSegment,
+                            nanosOf(budget), debug, printStats, statsJson).run();
+                return;
             }
 
-            if (output != null) {
-                Files.write(Paths.get(output), pa65.output().getBytes(), CREATE, TRUNCATE_EXISTING);
-            } else {
-                System.out.println(pa65.output());
+            Stats stats = new Stats();
+            List<SourceFile> sources = stats.time("parse", () -> parse(input, jobs, new SourceParser(regex, cache)));
+
+            if (cache != null) {
+                System.err.println("Parse cache: " + cache.getHits() + " hits, " + cache.getMisses() + " misses");
             }
+
+            PA65 pa65 = allocate(sources, stats, strategy, search, seed, maxRestarts, debug, jobs);
+
+            if (coloring) {
+                System.err.print(stats.time("coloring", pa65::colorHeap));
+            }
+
+            if (optimizeSegment != null) {
+                System.err.print(stats.time("optimization", () -> pa65.optimizeSegment(optimizeSegment, nanosOf(budget), jobs)));
+            }
+
+            if (tree) {
+                stats.time("tree", () -> {
+                    printStackTrace(pa65, compressTree);
+                    return null;
+                });
+            }
+
+            stats.time("output", () -> {
+                if (output == null) {
+                    Writer writer = new BufferedWriter(new OutputStreamWriter(System.out));
+                    pa65.output(writer);
+                    writer.write(lineSeparator());
+                    writer.flush();
+                } else if (keepUnchanged) {
+                    new OutputFile(Paths.get(output)).write(pa65::output);
+                } else {
+                    try (Writer writer = Files.newBufferedWriter(Paths.get(output), Charset.defaultCharset(), CREATE, TRUNCATE_EXISTING)) {
+                        pa65.output(writer);
+                    }
+                }
+
+                return null;
+            });
+
+            report(pa65, stats, printStats, statsJson);
         } catch (Exception e) {
             if (debug) {
                 e.printStackTrace();
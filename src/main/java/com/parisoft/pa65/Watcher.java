@@ -0,0 +1,175 @@
+package com.parisoft.pa65;
+
+import com.parisoft.pa65.output.OutputFile;
+import com.parisoft.pa65.parser.SourceParser;
+import com.parisoft.pa65.pojo.SourceFile;
+import com.parisoft.pa65.util.Stats;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.stream.Collectors.toList;
+
+// Keeps the parsed files in memory and generates the output again whenever an input file changes
+public class Watcher {
+
+    private static final long QUIET_PERIOD = 200; // milliseconds without events that ends a burst of saves
+
+    private final Set<Path> input = new LinkedHashSet<>();
+    private final Map<Path, SourceFile> sources = new HashMap<>();
+    private final int jobs;
+    private final SourceParser parser;
+    private final Path output;
+    private final boolean tree;
+    private final boolean compressTree;
+    private final String strategy;
+    private final boolean coloring;
+    private final int search;
+    private final long seed;
+    private final int maxRestarts;
+    private final String optimizeSegment;
+    private final long budgetNanos;
+    private final boolean debug;
+    private final boolean printStats;
+    private final String statsJson;
+
+    public Watcher(Collection<File> input, int jobs, SourceParser parser, String output, boolean tree, boolean compressTree, String strategy, boolean coloring,
+                   int search, long seed, int maxRestarts, String optimizeSegment, long budgetNanos, boolean debug, boolean printStats, String statsJson) {
+        input.forEach(file -> this.input.add(file.toPath().toAbsolutePath().normalize()));
+        this.jobs = jobs;
+        this.parser = parser;
+        this.output = output == null ? null : Paths.get(output);
+        this.tree = tree;
+        this.compressTree = compressTree;
+        this.strategy = strategy;
+        this.coloring = coloring;
+        this.search = search;
+        this.seed = seed;
+        this.maxRestarts = maxRestarts;
+        this.optimizeSegment = optimizeSegment;
+        this.budgetNanos = budgetNanos;
+        this.debug = debug;
+        this.printStats = printStats;
+        this.statsJson = statsJson;
+    }
+
+    public void run() throws IOException, InterruptedException {
+        try (WatchService service = FileSystems.getDefault().newWatchService()) {
+            Set<Path> dirs = new HashSet<>();
+
+            for (Path file : input) {
+                if (dirs.add(file.getParent())) {
+                    file.getParent().register(service, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                }
+            }
+
+            update(input);
+
+            while (true) {
+                Set<Path> changed = new HashSet<>();
+                WatchKey key = service.take();
+
+                do { // editors may write a file many times on save, so wait until things calm down
+                    Path dir = (Path) key.watchable();
+
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == OVERFLOW) {
+                            changed.addAll(input);
+                        } else {
+                            changed.add(dir.resolve((Path) event.context()));
+                        }
+                    }
+
+                    key.reset();
+                } while ((key = service.poll(QUIET_PERIOD, MILLISECONDS)) != null);
+
+                changed.retainAll(input);
+
+                if (!changed.isEmpty()) {
+                    update(changed);
+                }
+            }
+        }
+    }
+
+    private void update(Set<Path> changed) {
+        try {
+            List<File> files = changed.stream()
+                    .filter(Files::isRegularFile)
+                    .map(Path::toFile)
+                    .collect(toList());
+            Stats stats = new Stats();
+            List<SourceFile> parsed = stats.time("parse", () -> PA65.parse(files, jobs, parser));
+
+            changed.forEach(sources::remove); // removed files are not parsed, so they are gone from now on
+            parsed.forEach(source -> sources.put(source.getFile().toPath(), source));
+
+            System.err.println("Parsed " + files.size() + " of " + sources.size() + " files");
+
+            generate(stats);
+        } catch (Exception e) { // keep watching until the error is fixed
+            if (debug) {
+                e.printStackTrace();
+            } else {
+                System.err.println(e.getMessage());
+            }
+        }
+    }
+
+    private void generate(Stats stats) throws Exception {
+        List<SourceFile> parsed = input.stream()
+                .map(sources::get)
+                .filter(Objects::nonNull)
+                .collect(toList());
+        PA65 pa65 = PA65.allocate(parsed, stats, strategy, search, seed, maxRestarts, debug, jobs);
+
+        if (coloring) {
+            System.err.print(stats.time("coloring", pa65::colorHeap));
+        }
+
+        if (optimizeSegment != null) {
+            System.err.print(stats.time("optimization", () -> pa65.optimizeSegment(optimizeSegment, budgetNanos, jobs)));
+        }
+
+        if (tree) {
+            stats.time("tree", () -> {
+                PA65.printStackTrace(pa65, compressTree);
+                return null;
+            });
+        }
+
+        stats.time("output", () -> {
+            if (output == null) {
+                System.out.println(pa65.output());
+            } else if (new OutputFile(output).write(pa65::output)) {
+                System.err.println(output + " updated");
+            } else {
+                System.err.println(output + " is up to date");
+            }
+
+            return null;
+        });
+
+        PA65.report(pa65, stats, printStats, statsJson);
+    }
+}
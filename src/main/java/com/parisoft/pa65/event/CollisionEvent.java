@@ -0,0 +1,9 @@
+package com.parisoft.pa65.event;
+
+// A final block placed again over a block it cannot share memory with
+public interface CollisionEvent {
+
+    boolean isEnabled();
+
+    void commit(String segment, String variable, String other, int offset);
+}
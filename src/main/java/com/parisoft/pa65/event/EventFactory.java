@@ -0,0 +1,13 @@
+package com.parisoft.pa65.event;
+
+// Creates the events of a recorder, see Events
+public interface EventFactory {
+
+    ParseEvent newParseEvent();
+
+    HeapPassEvent newHeapPassEvent();
+
+    OutputEvent newOutputEvent();
+
+    CollisionEvent newCollisionEvent();
+}
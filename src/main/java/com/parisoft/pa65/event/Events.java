@@ -0,0 +1,34 @@
+package com.parisoft.pa65.event;
+
+// The JFR events extend jdk.jfr.Event, which JDK 8 builds and runtimes before 8u262 lack, so they are built from
+// src/jfr/java only on a JDK that has it and are loaded by name. Without them no event is created and the methods
+// return null.
+public class Events {
+
+    private static final EventFactory FACTORY = load();
+
+    public static ParseEvent newParseEvent() {
+        return FACTORY != null ? FACTORY.newParseEvent() : null;
+    }
+
+    public static HeapPassEvent newHeapPassEvent() {
+        return FACTORY != null ? FACTORY.newHeapPassEvent() : null;
+    }
+
+    public static OutputEvent newOutputEvent() {
+        return FACTORY != null ? FACTORY.newOutputEvent() : null;
+    }
+
+    public static CollisionEvent newCollisionEvent() {
+        return FACTORY != null ? FACTORY.newCollisionEvent() : null;
+    }
+
+    private static EventFactory load() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (EventFactory) Class.forName("com.parisoft.pa65.event.jfr.JfrEventFactory").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) { // not built or not in the runtime
+            return null;
+        }
+    }
+}
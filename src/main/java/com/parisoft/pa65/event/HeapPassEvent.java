@@ -0,0 +1,11 @@
+package com.parisoft.pa65.event;
+
+// A walk of every vector by createHeap
+public interface HeapPassEvent {
+
+    void begin();
+
+    boolean shouldCommit();
+
+    void commit(int pass, int allocations, int repairs, boolean restarted, int excludents);
+}
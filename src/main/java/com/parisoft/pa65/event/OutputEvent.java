@@ -0,0 +1,11 @@
+package com.parisoft.pa65.event;
+
+// A section of the generated file written
+public interface OutputEvent {
+
+    boolean isEnabled();
+
+    void begin();
+
+    void commit(String section, long chars);
+}
@@ -0,0 +1,11 @@
+package com.parisoft.pa65.event;
+
+// An input file parsed or loaded from the parse cache
+public interface ParseEvent {
+
+    void begin();
+
+    boolean shouldCommit();
+
+    void commit(String file, int lines, int functions, boolean cached);
+}
@@ -0,0 +1,43 @@
+package com.parisoft.pa65.heap;
+
+import com.parisoft.pa65.pojo.Alloc;
+import com.parisoft.pa65.pojo.Block;
+
+import java.util.Comparator;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+
+// Places a new block in a free block of the execution heap. The heap keeps the excludents and finds the last one the
+// block overlaps, a strategy picks the free block and splits it.
+public interface AllocationStrategy {
+
+    List<String> NAMES = asList("first-fit", "best-fit", "worst-fit", "largest-first");
+
+    static AllocationStrategy of(String name) {
+        switch (name) {
+            case "first-fit":
+                return new FirstFit();
+            case "best-fit":
+                return new RoomFit.BestFit();
+            case "worst-fit":
+                return new RoomFit.WorstFit();
+            case "largest-first":
+                return new LargestFirst();
+            default:
+                throw new IllegalArgumentException("Unknown allocation strategy: " + name + ". Expected one of " + NAMES);
+        }
+    }
+
+    String getName();
+
+    // places the block in a free block from fromIndex, after overlapped, or wholly before it if both are from the same
+    // function. With no overlapped block any free block that is large enough will do. The block is left unplaced if no
+    // free block can take it.
+    void place(Block block, Block overlapped, BlockList heap, int fromIndex);
+
+    // order of the allocs that follow each other in a function, null keeps the order of the sources
+    default Comparator<Alloc> getAllocOrder() {
+        return null;
+    }
+}
@@ -0,0 +1,696 @@
+package com.parisoft.pa65.heap;
+
+import com.parisoft.pa65.pojo.Block;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.Spliterators;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.util.Comparator.comparing;
+import static java.util.Comparator.comparingInt;
+import static java.util.Comparator.reverseOrder;
+import static java.util.Spliterator.NONNULL;
+import static java.util.Spliterator.ORDERED;
+
+// Execution heap of a segment: the blocks in heap order, kept in a treap indexed by position.
+// Every node knows the largest free size and end, the smallest free offset and the offset range of the
+// allocated blocks below it, so first fit and overlap queries skip the subtrees that cannot match.
+// Blocks changed since the last call to arrange() are dirty: arrange() only sorts them and refills the free
+// spaces around them, the rest of the heap is already sorted and filled.
+class BlockList {
+
+    private final Map<Block, Node> nodes = new IdentityHashMap<>();
+    private final Map<String, Block> variables = new HashMap<>();
+    private final Map<String, Set<Block>> functions = new HashMap<>(); // allocated blocks by function
+    private final Set<Block> dirty = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Random random = new Random(0);
+    private final boolean verify;
+    private Node root;
+    private boolean dirtyHead; // the first block was removed
+
+    // verify checks the whole heap after each call to arrange(), which is slow
+    BlockList(boolean verify) {
+        this.verify = verify;
+        Block free = new Block();
+        free.setSize(Integer.MAX_VALUE);
+        attach(0, free);
+    }
+
+    int size() {
+        return count(root);
+    }
+
+    Block get(int index) {
+        return nodeAt(index).block;
+    }
+
+    Block get(String variable) {
+        return variables.get(variable);
+    }
+
+    // allocated blocks of the function, in no particular order
+    Set<Block> getAll(String function) {
+        return functions.getOrDefault(function, Collections.emptySet());
+    }
+
+    int indexOf(Block block) {
+        Node node = nodes.get(block);
+
+        if (node == null) {
+            return -1;
+        }
+
+        int index = count(node.left);
+
+        for (Node parent = node.parent; parent != null; node = parent, parent = parent.parent) {
+            if (node == parent.right) {
+                index += count(parent.left) + 1;
+            }
+        }
+
+        return index;
+    }
+
+    // in heap order, the heap must not change while the stream is consumed
+    Stream<Block> stream() {
+        Iterator<Block> iterator = new Iterator<Block>() {
+            private Node next = first(root);
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Block next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+
+                Node node = next;
+                next = successor(node);
+
+                return node.block;
+            }
+        };
+
+        return StreamSupport.stream(Spliterators.spliterator(iterator, size(), ORDERED | NONNULL), false);
+    }
+
+    void add(Block block) {
+        add(size(), block);
+    }
+
+    void add(int index, Block block) {
+        attach(index, block);
+        dirty.add(block);
+    }
+
+    void set(int index, Block block) {
+        remove(index);
+        add(index, block);
+    }
+
+    Block remove(int index) {
+        Block block = detach(index);
+
+        if (index > 0) {
+            dirty.add(get(index - 1));
+        } else {
+            dirtyHead = true;
+        }
+
+        return block;
+    }
+
+    void remove(Block block) {
+        int index = indexOf(block);
+
+        if (index >= 0) {
+            remove(index);
+        }
+    }
+
+    void removeAll(Collection<Block> blocks) {
+        blocks.forEach(this::remove);
+    }
+
+    // must be called after changing the offset, size or state of a block of the heap
+    void update(Block block) {
+        Node node = nodes.get(block);
+
+        if (node != null) {
+            dirty.add(block);
+
+            for (; node != null; node = node.parent) {
+                node.pull();
+            }
+        }
+    }
+
+    // first free block from index with at least size bytes
+    int indexOfFree(int fromIndex, int size) {
+        return find(root, 0, fromIndex, node -> node.maxFreeSize >= size, block -> block.isFree() && block.getSize() >= size);
+    }
+
+    // first free block from index that ends at or after end
+    int indexOfFreeReaching(int fromIndex, int end) {
+        return find(root, 0, fromIndex, node -> node.maxFreeEnd >= end, block -> block.isFree() && block.getOffsetPlusSize() >= end);
+    }
+
+    // first free block from index with at least size bytes before limit
+    int indexOfFreeBefore(int fromIndex, int size, int limit) {
+        return find(root, 0, fromIndex,
+                     node -> node.maxFreeSize >= size && ((long) node.minFreeOffset + size <= limit || node.maxFreeOffset > Integer.MAX_VALUE - size),
+                     block -> block.isFree() && block.getSize() >= size && block.getOffset() + size <= limit);
+    }
+
+    // takes the beginning of the free block at index
+    void allocBefore(int index, Block block) {
+        Block allocated = get(index);
+        block.setOffset(allocated.getOffset());
+        allocated.setOffset(block.getOffsetPlusSize());
+
+        if (allocated.getSize() > block.getSize()) {
+            allocated.subSize(block);
+            update(allocated);
+            add(index, block);
+        } else {
+            set(index, block);
+        }
+    }
+
+    // allocated blocks, finished or not, that overlap the given block, in heap order
+    List<Block> overlapping(Block block, boolean finished) {
+        List<Block> blocks = new ArrayList<>();
+        long last = Math.max(block.getOffset(), (long) block.getOffset() + block.getSize());
+        collect(root, blocks,
+                node -> finished
+                        ? node.minFinishedOffset <= last && node.maxFinishedEnd >= block.getOffset()
+                        : node.minUnfinishedOffset <= last && node.maxUnfinishedEnd >= block.getOffset(),
+                other -> other.isNotFree() && other.isFinished() == finished && other.overlaps(block));
+
+        return blocks;
+    }
+
+    // Same as removing the free blocks, stably sorting the others by offset with the finished ones first, then filling
+    // the free spaces between them again, as long as only the dirty blocks are out of place.
+    void arrange() {
+        List<Block> changed = new ArrayList<>(dirty);
+        changed.sort(comparingInt(this::indexOf));
+
+        Map<Block, Integer> indexes = new IdentityHashMap<>();
+        Map<Block, Block> previous = new IdentityHashMap<>(); // last clean allocated block before each changed block
+        Set<Block> anchors = Collections.newSetFromMap(new IdentityHashMap<>()); // the free spaces after them are filled again
+        boolean fillHead = dirtyHead;
+
+        Block lastChanged = null;
+
+        for (Block block : changed) { // the nearest block before it that is either changed or allocated
+            int index = indexOf(block);
+            int before = prevAllocated(index);
+            Block prev = before < 0 ? null : get(before);
+
+            if (lastChanged != null && indexes.get(lastChanged) >= before) {
+                prev = previous.get(lastChanged);
+            }
+
+            lastChanged = block;
+            indexes.put(block, index);
+            previous.put(block, prev);
+
+            if (prev == null) {
+                fillHead = true;
+            } else {
+                anchors.add(prev);
+            }
+        }
+
+        changed.forEach(block -> detach(indexOf(block)));
+
+        List<Block> sorted = new ArrayList<>();
+
+        for (Block block : changed) {
+            if (block.isNotFree()) {
+                sorted.add(block);
+            }
+        }
+
+        sorted.sort(comparing(Block::getOffset)
+                            .thenComparing(Block::isFinished, reverseOrder())
+                            .thenComparing(indexes::get));
+
+        List<Block> nextBlocks = new ArrayList<>(); // clean allocated block that follows each sorted block, or null at the end
+
+        for (Block block : sorted) {
+            Block prev = previous.get(block);
+            long key = keyOf(block);
+            int next;
+
+            if (prev != null && keyOf(prev) == key) { // stable among equal keys
+                next = nextAllocated(indexOf(prev) + 1);
+            } else if (prev == null || keyOf(prev) < key) {
+                next = find(root, 0, 0, node -> node.maxKey >= key, other -> other.isNotFree() && keyOf(other) >= key);
+            } else {
+                next = find(root, 0, 0, node -> node.maxKey > key, other -> other.isNotFree() && keyOf(other) > key);
+            }
+
+            int before = prevAllocated(next < 0 ? size() : next);
+            nextBlocks.add(next < 0 ? null : get(next));
+
+            if (before < 0) {
+                fillHead = true;
+            } else {
+                anchors.add(get(before));
+            }
+        }
+
+        for (int i = 0; i < sorted.size(); i++) {
+            Block next = nextBlocks.get(i);
+            attach(next == null ? size() : indexOf(next), sorted.get(i));
+        }
+
+        Set<Block> inserted = Collections.newSetFromMap(new IdentityHashMap<>());
+        inserted.addAll(sorted);
+
+        if (fillHead) {
+            fill(null, inserted);
+        }
+
+        anchors.forEach(anchor -> fill(anchor, inserted));
+
+        dirty.clear();
+        dirtyHead = false;
+
+        if (verify) {
+            verify();
+        }
+    }
+
+    // Checks what arrange() leaves: the treap, the aggregates of every node and the indexes agree with the blocks, the
+    // allocated blocks are sorted and each free block begins where the block before it ends, up to an endless last one.
+    // Allocated blocks may overlap, so a free block may begin before the end of an earlier one.
+    void verify() {
+        if (root == null || root.parent != null) {
+            throw new IllegalStateException("Heap has no root");
+        }
+
+        verify(root);
+
+        if (nodes.size() != size()) {
+            throw new IllegalStateException("Heap has " + size() + " blocks but " + nodes.size() + " nodes");
+        }
+
+        long allocated = 0;
+        long key = Long.MIN_VALUE;
+        Block prev = null;
+
+        for (Iterator<Block> blocks = stream().iterator(); blocks.hasNext(); ) {
+            Block block = blocks.next();
+
+            if (block.isNotFree()) {
+                if (keyOf(block) < key || block.getSize() < 0) {
+                    throw new IllegalStateException("Block " + block + " is out of place");
+                }
+
+                if (variables.get(block.getVariable()) != block || !getAll(block.getFunction()).contains(block)) {
+                    throw new IllegalStateException("Block " + block + " is not indexed");
+                }
+
+                key = keyOf(block);
+                allocated++;
+            } else if (block.getSize() <= 0 || block.getOffset() != (prev == null ? 0 : prev.getOffsetPlusSize()) || prev != null && prev.isFree()) {
+                throw new IllegalStateException("Free block " + block + " does not fill the space after " + prev);
+            }
+
+            prev = block;
+        }
+
+        if (prev == null || prev.isNotFree() || prev.getOffsetPlusSize() != Integer.MAX_VALUE) {
+            throw new IllegalStateException("Heap does not end with free space");
+        }
+
+        if (variables.size() != allocated || functions.values().stream().mapToLong(Set::size).sum() != allocated) {
+            throw new IllegalStateException("Heap has " + allocated + " allocated blocks but " + variables.size() + " indexed");
+        }
+    }
+
+    // refills the free spaces from the anchor to the next allocated block that was not inserted by arrange()
+    private void fill(Block anchor, Set<Block> inserted) {
+        Block prev = anchor;
+        int i = anchor == null ? 0 : indexOf(anchor) + 1;
+
+        while (i < size()) {
+            Block curr = get(i);
+
+            if (curr.isFree()) {
+                detach(i);
+                continue;
+            }
+
+            Block free = null;
+
+            if (prev == null) {
+                if (curr.getOffset() > 0) {
+                    free = new Block();
+                    free.setSize(curr.getOffset());
+                }
+            } else if (curr.getOffset() > prev.getOffsetPlusSize()) {
+                free = new Block();
+                free.setOffset(prev.getOffsetPlusSize());
+                free.setSize(curr.getOffset() - free.getOffset());
+            }
+
+            if (free != null) {
+                attach(i++, free);
+            }
+
+            if (!inserted.contains(curr)) {
+                return;
+            }
+
+            prev = curr;
+            i++;
+        }
+
+        Block free = new Block();
+        free.setOffset(prev == null ? 0 : prev.getOffsetPlusSize());
+        free.setSize(Integer.MAX_VALUE);
+        attach(size(), free);
+    }
+
+    // first allocated block from index
+    private int nextAllocated(int index) {
+        return find(root, 0, index, Node::hasAllocated, Block::isNotFree);
+    }
+
+    // last allocated block before index
+    private int prevAllocated(int index) {
+        return findLast(root, 0, index, Node::hasAllocated, Block::isNotFree);
+    }
+
+    private void attach(int index, Block block) {
+        Node node = new Node(block, random.nextInt());
+        nodes.put(block, node);
+
+        if (block.isNotFree()) {
+            variables.put(block.getVariable(), block);
+            functions.computeIfAbsent(block.getFunction(), s -> new LinkedHashSet<>()).add(block);
+        }
+
+        Node[] split = split(root, index);
+        root = merge(merge(split[0], node), split[1]);
+        root.parent = null;
+    }
+
+    private Block detach(int index) {
+        Node[] left = split(root, index);
+        Node[] right = split(left[1], 1);
+        root = merge(left[0], right[1]);
+
+        if (root != null) {
+            root.parent = null;
+        }
+
+        Block block = right[0].block;
+        nodes.remove(block);
+        dirty.remove(block);
+
+        if (block.isNotFree()) {
+            variables.remove(block.getVariable());
+            functions.computeIfPresent(block.getFunction(), (function, blocks) -> blocks.remove(block) && blocks.isEmpty() ? null : blocks);
+        }
+
+        return block;
+    }
+
+    // the children first, so their aggregates are known to be right when the parent is checked
+    private void verify(Node node) {
+        for (Node child : new Node[]{node.left, node.right}) {
+            if (child != null) {
+                if (child.parent != node || child.priority > node.priority) {
+                    throw new IllegalStateException("Node of " + child.block + " is out of place");
+                }
+
+                verify(child);
+            }
+        }
+
+        long[] aggregates = node.aggregates();
+        node.pull();
+
+        if (nodes.get(node.block) != node || !Arrays.equals(aggregates, node.aggregates())) {
+            throw new IllegalStateException("Node of " + node.block + " has stale aggregates");
+        }
+    }
+
+    private Node nodeAt(int index) {
+        Node node = root;
+
+        while (true) {
+            int left = count(node.left);
+
+            if (index < left) {
+                node = node.left;
+            } else if (index == left) {
+                return node;
+            } else {
+                index -= left + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    private static int find(Node node, int base, int fromIndex, Predicate<Node> subtree, Predicate<Block> match) {
+        if (node == null || base + node.count <= fromIndex || !subtree.test(node)) {
+            return -1;
+        }
+
+        int index = base + count(node.left);
+        int found = find(node.left, base, fromIndex, subtree, match);
+
+        if (found >= 0) {
+            return found;
+        }
+
+        if (index >= fromIndex && match.test(node.block)) {
+            return index;
+        }
+
+        return find(node.right, index + 1, fromIndex, subtree, match);
+    }
+
+    private static int findLast(Node node, int base, int toIndex, Predicate<Node> subtree, Predicate<Block> match) {
+        if (node == null || base >= toIndex || !subtree.test(node)) {
+            return -1;
+        }
+
+        int index = base + count(node.left);
+        int found = findLast(node.right, index + 1, toIndex, subtree, match);
+
+        if (found >= 0) {
+            return found;
+        }
+
+        if (index < toIndex && match.test(node.block)) {
+            return index;
+        }
+
+        return findLast(node.left, base, toIndex, subtree, match);
+    }
+
+    private static void collect(Node node, List<Block> blocks, Predicate<Node> subtree, Predicate<Block> match) {
+        if (node != null && subtree.test(node)) {
+            collect(node.left, blocks, subtree, match);
+
+            if (match.test(node.block)) {
+                blocks.add(node.block);
+            }
+
+            collect(node.right, blocks, subtree, match);
+        }
+    }
+
+    private static Node first(Node node) {
+        while (node != null && node.left != null) {
+            node = node.left;
+        }
+
+        return node;
+    }
+
+    private static Node successor(Node node) {
+        if (node.right != null) {
+            return first(node.right);
+        }
+
+        while (node.parent != null && node == node.parent.right) {
+            node = node.parent;
+        }
+
+        return node.parent;
+    }
+
+    private static Node[] split(Node node, int index) {
+        if (node == null) {
+            return new Node[2];
+        }
+
+        Node[] split;
+
+        if (index <= count(node.left)) {
+            split = split(node.left, index);
+            node.setLeft(split[1]);
+            split[1] = node;
+        } else {
+            split = split(node.right, index - count(node.left) - 1);
+            node.setRight(split[0]);
+            split[0] = node;
+        }
+
+        node.pull();
+
+        return split;
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+
+        if (right == null) {
+            return left;
+        }
+
+        if (left.priority > right.priority) {
+            left.setRight(merge(left.right, right));
+            left.pull();
+
+            return left;
+        }
+
+        right.setLeft(merge(left, right.left));
+        right.pull();
+
+        return right;
+    }
+
+    private static int count(Node node) {
+        return node == null ? 0 : node.count;
+    }
+
+    // sort key of an allocated block: offset, then finished before unfinished
+    private static long keyOf(Block block) {
+        return ((long) block.getOffset() << 1) | (block.isFinished() ? 0 : 1);
+    }
+
+    private static class Node {
+
+        private final Block block;
+        private final int priority;
+        private Node left;
+        private Node right;
+        private Node parent;
+        private int count;
+        private int maxFreeSize;
+        private int maxFreeEnd;
+        private int minFreeOffset;
+        private int maxFreeOffset;
+        private long minFinishedOffset;
+        private long maxFinishedEnd;
+        private long minUnfinishedOffset;
+        private long maxUnfinishedEnd;
+        private long maxKey;
+
+        Node(Block block, int priority) {
+            this.block = block;
+            this.priority = priority;
+            pull();
+        }
+
+        long[] aggregates() {
+            return new long[]{count, maxFreeSize, maxFreeEnd, minFreeOffset, maxFreeOffset, minFinishedOffset, maxFinishedEnd,
+                    minUnfinishedOffset, maxUnfinishedEnd, maxKey};
+        }
+
+        boolean hasAllocated() {
+            return maxKey != Long.MIN_VALUE;
+        }
+
+        void setLeft(Node left) {
+            this.left = left;
+
+            if (left != null) {
+                left.parent = this;
+            }
+        }
+
+        void setRight(Node right) {
+            this.right = right;
+
+            if (right != null) {
+                right.parent = this;
+            }
+        }
+
+        void pull() {
+            count = 1;
+            maxFreeSize = Integer.MIN_VALUE;
+            maxFreeEnd = Integer.MIN_VALUE;
+            minFreeOffset = Integer.MAX_VALUE;
+            maxFreeOffset = Integer.MIN_VALUE;
+            minFinishedOffset = Long.MAX_VALUE;
+            maxFinishedEnd = Long.MIN_VALUE;
+            minUnfinishedOffset = Long.MAX_VALUE;
+            maxUnfinishedEnd = Long.MIN_VALUE;
+            maxKey = Long.MIN_VALUE;
+
+            if (block.isFree()) {
+                maxFreeSize = block.getSize();
+                maxFreeEnd = block.getOffsetPlusSize();
+                minFreeOffset = block.getOffset();
+                maxFreeOffset = block.getOffset();
+            } else if (block.isFinished()) {
+                minFinishedOffset = block.getOffset();
+                maxFinishedEnd = (long) block.getOffset() + block.getSize();
+                maxKey = keyOf(block);
+            } else {
+                minUnfinishedOffset = block.getOffset();
+                maxUnfinishedEnd = (long) block.getOffset() + block.getSize();
+                maxKey = keyOf(block);
+            }
+
+            add(left);
+            add(right);
+        }
+
+        private void add(Node child) {
+            if (child != null) {
+                count += child.count;
+                maxFreeSize = Math.max(maxFreeSize, child.maxFreeSize);
+                maxFreeEnd = Math.max(maxFreeEnd, child.maxFreeEnd);
+                minFreeOffset = Math.min(minFreeOffset, child.minFreeOffset);
+                maxFreeOffset = Math.max(maxFreeOffset, child.maxFreeOffset);
+                minFinishedOffset = Math.min(minFinishedOffset, child.minFinishedOffset);
+                maxFinishedEnd = Math.max(maxFinishedEnd, child.maxFinishedEnd);
+                minUnfinishedOffset = Math.min(minUnfinishedOffset, child.minUnfinishedOffset);
+                maxUnfinishedEnd = Math.max(maxUnfinishedEnd, child.maxUnfinishedEnd);
+                maxKey = Math.max(maxKey, child.maxKey);
+            }
+        }
+    }
+}
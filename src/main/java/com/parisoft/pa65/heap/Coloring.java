@@ -0,0 +1,125 @@
+package com.parisoft.pa65.heap;
+
+import com.parisoft.pa65.pojo.Block;
+import com.parisoft.pa65.util.SymbolTable;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static java.util.Comparator.comparing;
+import static java.util.Comparator.comparingInt;
+
+// Places the blocks of a segment again, coloring the graph of the variables alive at the same time.
+// Each block goes to the lowest offset that does not overlap its neighbours already placed, trying a few orders and
+// keeping the smallest segment. The first fit offsets are kept when no order does better.
+class Coloring {
+
+    private final SymbolTable symbols;
+    private final List<BitSet> interferences;
+
+    Coloring(SymbolTable symbols, List<BitSet> interferences) {
+        this.symbols = symbols;
+        this.interferences = interferences;
+    }
+
+    void color(List<Block> blocks) {
+        Map<Block, List<Block>> neighbours = neighboursOf(symbols, interferences, blocks);
+        Comparator<Block> byId = comparingInt(block -> symbols.idOf(block.getVariable()));
+        List<Comparator<Block>> orders = asList(
+                comparingInt(Block::getOffset).thenComparing(byId),
+                comparing(Block::getSize).reversed().thenComparing(byId),
+                comparing((Block block) -> block.getSize() + neighbours.get(block).stream().mapToInt(Block::getSize).sum()).reversed().thenComparing(byId));
+        Map<Block, Integer> best = null;
+        int bestSize = Heap.sizeOf(blocks);
+
+        for (Comparator<Block> order : orders) {
+            List<Block> sorted = new ArrayList<>(blocks);
+            sorted.sort(order);
+
+            Map<Block, Integer> offsets = place(sorted, neighbours);
+            int size = blocks.stream().mapToInt(block -> offsets.get(block) + block.getSize()).max().orElse(0);
+
+            if (size < bestSize) {
+                best = offsets;
+                bestSize = size;
+            }
+        }
+
+        if (best != null) {
+            best.forEach(Block::setOffset);
+        }
+    }
+
+    // the blocks each block was in the execution heap together with
+    static Map<Block, List<Block>> neighboursOf(SymbolTable symbols, List<BitSet> interferences, List<Block> blocks) {
+        Map<Integer, Block> blockById = new HashMap<>();
+        Map<Block, List<Block>> neighbours = new HashMap<>();
+
+        for (Block block : blocks) {
+            blockById.put(symbols.idOf(block.getVariable()), block);
+            neighbours.put(block, new ArrayList<>());
+        }
+
+        for (Block block : blocks) {
+            int id = symbols.idOf(block.getVariable());
+            BitSet row = id < interferences.size() ? interferences.get(id) : new BitSet();
+
+            for (int other = row.nextSetBit(0); other >= 0; other = row.nextSetBit(other + 1)) {
+                Block neighbour = blockById.get(other);
+
+                if (neighbour != null && neighbour != block) { // the relation is kept in one direction only
+                    neighbours.get(block).add(neighbour);
+                    neighbours.get(neighbour).add(block);
+                }
+            }
+        }
+
+        return neighbours;
+    }
+
+    private static Map<Block, Integer> place(List<Block> blocks, Map<Block, List<Block>> neighbours) {
+        Map<Block, Integer> offsets = new HashMap<>();
+
+        for (Block block : blocks) {
+            List<int[]> taken = new ArrayList<>();
+
+            for (Block neighbour : neighbours.get(block)) {
+                Integer offset = offsets.get(neighbour);
+
+                if (offset != null && neighbour.getSize() > 0) {
+                    taken.add(new int[]{offset, offset + neighbour.getSize()});
+                }
+            }
+
+            offsets.put(block, lowestOffset(taken, block.getSize()));
+        }
+
+        return offsets;
+    }
+
+    // the lowest offset where size bytes do not overlap any of the taken [start, end) ranges
+    static int lowestOffset(List<int[]> taken, int size) {
+        if (size <= 0) {
+            return 0;
+        }
+
+        int offset = 0;
+
+        taken.sort(comparingInt(range -> range[0]));
+
+        for (int[] range : taken) {
+            if (range[0] >= offset + size) {
+                break;
+            }
+
+            offset = Math.max(offset, range[1]);
+        }
+
+        return offset;
+    }
+}
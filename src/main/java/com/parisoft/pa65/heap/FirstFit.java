@@ -0,0 +1,64 @@
+package com.parisoft.pa65.heap;
+
+import com.parisoft.pa65.pojo.Block;
+
+// The first free block in heap order that can take the block, found by walking only the subtrees of the treap that can
+// have it. This is the placement pa65 always had, kept as it is so the default layouts do not change.
+class FirstFit implements AllocationStrategy {
+
+    @Override
+    public String getName() {
+        return "first-fit";
+    }
+
+    @Override
+    public void place(Block block, Block overlapped, BlockList heap, int fromIndex) {
+        if (overlapped == null) {
+            int i = heap.indexOfFree(fromIndex, block.getSize());
+
+            if (i >= 0) {
+                heap.allocBefore(i, block);
+            }
+
+            return;
+        }
+
+        int i = heap.indexOfFreeReaching(fromIndex, overlapped.getOffsetPlusSize() + block.getSize());
+        int j = block.getFunction().equals(overlapped.getFunction()) // only alloc before overlapped if from same function
+                ? heap.indexOfFreeBefore(fromIndex, block.getSize(), overlapped.getOffset())
+                : -1;
+
+        if (i >= 0 && (j < 0 || i <= j)) {
+            allocAfter(block, overlapped, heap, i);
+        } else if (j >= 0) {
+            heap.allocBefore(j, block);
+        }
+    }
+
+    // takes the free block at index right after overlapped, or from its beginning if it begins after overlapped
+    static void allocAfter(Block block, Block overlapped, BlockList heap, int index) {
+        Block allocated = heap.get(index);
+        block.setOffset(overlapped.getOffsetPlusSize());
+
+        if (allocated.getOffset() < block.getOffset()) {
+            Block free = new Block();
+            free.setOffset(block.getOffsetPlusSize());
+            free.setSize(allocated.getOffsetPlusSize() - block.getOffset() - block.getSize());
+            allocated.setSize(allocated.getSize() - block.getSize() - free.getSize());
+            heap.update(allocated);
+            heap.add(index + 1, block);
+            heap.add(index + 2, free);
+        } else if (allocated.getOffset() > block.getOffset()) {
+            block.setOffset(allocated.getOffset());
+            allocated.setOffset(block.getOffsetPlusSize());
+            allocated.subSize(block);
+            heap.update(allocated);
+            heap.add(index, block);
+        } else {
+            allocated.setOffset(block.getOffsetPlusSize());
+            allocated.subSize(block);
+            heap.update(allocated);
+            heap.add(index, block);
+        }
+    }
+}
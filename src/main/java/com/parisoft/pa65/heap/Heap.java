@@ -1,68 +1,188 @@
 package com.parisoft.pa65.heap;
 
+import com.parisoft.pa65.event.CollisionEvent;
+import com.parisoft.pa65.event.Events;
 import com.parisoft.pa65.pojo.Alloc;
 import com.parisoft.pa65.pojo.Block;
 import com.parisoft.pa65.pojo.Function;
 import com.parisoft.pa65.pojo.Ref;
+import com.parisoft.pa65.util.SymbolTable;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
 import java.util.Set;
-import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 import static com.parisoft.pa65.util.VariableUtils.functionOf;
+import static java.lang.System.lineSeparator;
 import static java.util.Collections.emptyList;
-import static java.util.Collections.emptySet;
+import static java.util.Collections.emptyMap;
 import static java.util.Comparator.comparing;
 import static java.util.Comparator.comparingInt;
-import static java.util.Comparator.reverseOrder;
-import static java.util.stream.Collectors.groupingBy;
 import static java.util.stream.Collectors.toList;
 
 public class Heap {
 
-    private final Map<String, List<Block>> tmpHeapByFunction = new HashMap<>(); // temporary heap to save the state of the execution heap when jumping to another function
-    private final Map<String, List<Block>> execHeapBySegment = new HashMap<>(); // execution heap: call to palloc or pfree creates or removes a block during processing
+    private final Map<String, BlockList> execHeapBySegment = new HashMap<>(); // execution heap: call to palloc or pfree creates or removes a block during processing
     private final Map<String, List<Block>> finalHeapBySegment = new LinkedHashMap<>(); // blocks for processed functions goes here
+    private final Map<String, Map<String, Block>> finalBlocksBySegment = new HashMap<>(); // same blocks by variable
+    private final Map<String, List<Block>> finalBlocksByFunction = new LinkedHashMap<>(); // same blocks by function
     private final Map<String, List<Ref>> refsByFunction = new LinkedHashMap<>();
     private final Map<String, List<Ref>> refsByTarget = new LinkedHashMap<>();
-    private final Map<String, Set<String>> excludents = new HashMap<>();
+    private final List<BitSet> excludents = new ArrayList<>(); // by symbol id, variables that cannot share memory with it
+    private final List<BitSet> interferences = new ArrayList<>(); // by symbol id, variables that were in the execution heap together with it
+    private final Map<String, BitSet> liveBySegment = new HashMap<>(); // ids of the variables in the execution heap
     private final ArrayDeque<Function> stack = new ArrayDeque<>();
+    private final Map<String, Integer> activeFunctions = new HashMap<>(); // times each function is on the stack
+    private final Set<String> retained = new LinkedHashSet<>(); // functions off the stack that may have blocks in an execution heap
+    private final BitSet checked = new BitSet(); // by symbol id, variables whose dereferenceability is known
+    private final BitSet dereferenceable = new BitSet(); // valid while the stack and the refs do not change
+    private final Map<String, Integer> peaksBySegment = new LinkedHashMap<>(); // largest end of the execution heap, over every pass
+    private final SymbolTable symbols;
+    private int repairs;
+    private int restarts;
+    private int maxRestarts = Integer.MAX_VALUE; // then every collision is repaired in place, even if the segment grows
+    private boolean capped; // a collision was repaired growing the segment as no restarts were left
+    private int allocations; // calls to alloc
+    private AllocationStrategy strategy = new FirstFit();
+    private boolean verify;
+
+    public Heap(SymbolTable symbols) {
+        this.symbols = symbols;
+    }
+
+    public AllocationStrategy getStrategy() {
+        return strategy;
+    }
+
+    public void setStrategy(AllocationStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    // checks every execution heap after it is arranged, which is slow
+    public void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    // starts over at most the times given on collisions that cannot be repaired without growing the segment
+    public void setMaxRestarts(int maxRestarts) {
+        this.maxRestarts = maxRestarts;
+    }
+
+    public boolean isCapped() {
+        return capped;
+    }
 
     public Map<String, List<Block>> getBlocksBySegment() {
         return finalHeapBySegment;
     }
 
     public Map<String, List<Block>> getBlocksByFunction() {
-        return getBlocksBySegment().values()
-                .stream()
-                .flatMap(List::stream)
-                .collect(groupingBy(Block::getFunction));
+        return finalBlocksByFunction;
+    }
+
+    public Map<String, Integer> getSizesBySegment() {
+        Map<String, Integer> sizes = new LinkedHashMap<>();
+        finalHeapBySegment.forEach((segment, blocks) -> sizes.put(segment, sizeOf(blocks)));
+        return sizes;
     }
 
     public Map<String, List<Ref>> getRefsByFunction() {
         return refsByFunction;
     }
 
-    public ArrayDeque<Function> getStack() {
-        return stack;
+    public void push(Function function) {
+        stack.push(function);
+        activeFunctions.merge(function.getName(), 1, Integer::sum);
+        retained.remove(function.getName());
+        checked.clear();
+    }
+
+    public void pop() {
+        Function function = stack.pop();
+        activeFunctions.computeIfPresent(function.getName(), (name, count) -> count > 1 ? count - 1 : null);
+
+        if (!activeFunctions.containsKey(function.getName())) {
+            retained.add(function.getName());
+        }
+
+        checked.clear();
+    }
+
+    public int getRepairs() {
+        return repairs;
+    }
+
+    public int getRestarts() {
+        return restarts;
+    }
+
+    public int getAllocations() {
+        return allocations;
+    }
+
+    public Map<String, Integer> getPeaksBySegment() {
+        return peaksBySegment;
+    }
+
+    // pairs of variables that cannot share memory
+    public int getExcludents() {
+        return excludents.stream().mapToInt(BitSet::cardinality).sum() / 2;
     }
 
     public void clear() {
-        tmpHeapByFunction.clear();
         execHeapBySegment.clear();
         finalHeapBySegment.clear();
+        finalBlocksBySegment.clear();
+        finalBlocksByFunction.clear();
         refsByFunction.clear();
         refsByTarget.clear();
+        liveBySegment.clear();
         stack.clear();
+        activeFunctions.clear();
+        retained.clear();
+        checked.clear();
+    }
+
+    // starts over keeping only what was learned about the variables
+    public void restart() {
+        clear();
+        restarts++;
+    }
+
+    // places the final blocks again by coloring the interference graph, keeping the first fit offsets if not smaller
+    public void color() {
+        Coloring coloring = new Coloring(symbols, interferences);
+        finalHeapBySegment.values().forEach(coloring::color);
+    }
+
+    // places the final blocks of the segments with the name again with the smallest size that can be found in the time,
+    // and reports the size of each one before and after it
+    public String optimize(String name, long budgetNanos, int jobs) {
+        StringBuilder report = new StringBuilder();
+
+        finalHeapBySegment.forEach((segment, blocks) -> {
+            if (!segment.replaceAll("^\\.|\"", "").equalsIgnoreCase(name.replaceAll("^\\.|\"", ""))) {
+                return;
+            }
+
+            int size = sizeOf(blocks);
+            Packing packing = new Packing(symbols, interferences, blocks, budgetNanos);
+            packing.pack(jobs);
+            report.append("Segment ").append(segment)
+                    .append(": $").append(Integer.toHexString(size))
+                    .append(", optimized $").append(Integer.toHexString(packing.getSize()))
+                    .append(packing.isOptimal() ? ", optimal" : ", at most $" + Integer.toHexString(packing.getSize() - packing.getLowerBound()) + " over the optimum, time is over")
+                    .append(lineSeparator());
+        });
+
+        return report.length() > 0 ? report.toString() : "Segment " + name + " not found" + lineSeparator();
     }
 
     public void addReference(Function function, Ref ref) {
@@ -76,26 +196,7 @@ public class Heap {
 
         if (!refs.contains(ref)) {
             refs.add(ref);
-        }
-    }
-
-    public void save(Function function) {
-        List<Block> blocks = execHeapBySegment.values()
-                .stream()
-                .flatMap(List::stream)
-                .filter(this::canDereference)
-                .collect(toList());
-        List<Block> tmpHeap = tmpHeapByFunction.computeIfAbsent(function.getName(), s -> newHeap(false));
-
-        for (Block block : blocks) {
-            free(block);
-            tmpHeap.add(block);
-        }
-    }
-
-    public void load(Function function) throws AllocCollisionException {
-        for (Block block : tmpHeapByFunction.remove(function.getName())) {
-            allocByFirstFit(block.getAlloc());
+            checked.clear();
         }
     }
 
@@ -103,34 +204,41 @@ public class Heap {
         free();
 
         execHeapBySegment.values()
-                .stream()
-                .flatMap(List::stream)
-                .filter(block -> function.getName().equals(block.getFunction()))
-                .forEach(block -> block.setFinished(true));
+                .forEach(heap -> heap.getAll(function.getName())
+                        .forEach(block -> {
+                            block.setFinished(true);
+                            heap.update(block);
+                        }));
     }
 
+    // only the blocks of the functions off the stack can be dereferenced, they are freed in heap order
     public void free() {
-        List<Block> blocks = execHeapBySegment.values()
-                .stream()
-                .flatMap(List::stream)
-                .filter(this::canDereference)
-                .collect(toList());
+        List<Block> blocks = new ArrayList<>();
+
+        for (BlockList heap : execHeapBySegment.values()) {
+            List<Block> dereferenceable = new ArrayList<>();
+            retained.forEach(function -> heap.getAll(function).stream().filter(this::canDereference).forEach(dereferenceable::add));
+            dereferenceable.sort(comparingInt(heap::indexOf));
+            blocks.addAll(dereferenceable);
+        }
+
         blocks.forEach(this::free);
+        retained.removeIf(function -> execHeapBySegment.values().stream().allMatch(heap -> heap.getAll(function).isEmpty()));
     }
 
     public void free(List<String> variables) {
         execHeapBySegment.values()
                 .stream()
-                .flatMap(List::stream)
-                .filter(block -> variables.contains(block.getVariable()))
+                .flatMap(heap -> variables.stream().map(heap::get).filter(Objects::nonNull))
+                .distinct()
                 .filter(this::canDereference)
                 .sorted(comparing(Block::getOffset))
                 .forEach(this::free);
     }
 
     private void free(Block block) {
-        List<Block> heap = execHeapBySegment.get(block.getSegment());
-        int i = IntStream.range(0, heap.size()).filter(value -> heap.get(value).equals(block)).findFirst().orElse(-1);
+        BlockList heap = execHeapBySegment.get(block.getSegment());
+        int i = heap.indexOf(block);
 
         if (i < 0) {
             return;
@@ -139,6 +247,7 @@ public class Heap {
         Block prev = i > 0 ? heap.get(i - 1) : null;
         Block next = i < heap.size() - 1 ? heap.get(i + 1) : null;
         Block curr = heap.remove(i);
+        liveBySegment.computeIfAbsent(block.getSegment(), s -> new BitSet()).clear(symbols.idOf(block.getVariable()));
 
         if (prev != null && prev.isFree()) {
             prev.addSize(curr);
@@ -147,9 +256,12 @@ public class Heap {
                 prev.addSize(next);
                 heap.remove(next);
             }
+
+            heap.update(prev);
         } else if (next != null && next.isFree()) {
             next.addSize(curr);
             next.setOffset(curr.getOffset());
+            heap.update(next);
         } else {
             Block free = new Block();
             free.setSize(block.getSize());
@@ -157,194 +269,254 @@ public class Heap {
             heap.add(i, free);
         }
 
-        List<Block> toHeap = finalHeapBySegment.computeIfAbsent(block.getSegment(), s -> newHeap(false));
+        List<Block> toHeap = finalHeapBySegment.computeIfAbsent(block.getSegment(), s -> newHeap());
 
-        if (toHeap.stream().noneMatch(block1 -> Objects.equals(block.getVariable(), block1.getVariable()))) {
+        if (finalBlocksBySegment.computeIfAbsent(block.getSegment(), s -> new HashMap<>()).putIfAbsent(block.getVariable(), block) == null) {
             block.setFinished(true);
             toHeap.add(block);
+            finalBlocksByFunction.computeIfAbsent(block.getFunction(), s -> new ArrayList<>()).add(block);
         }
     }
 
-    public void allocByFirstFit(Alloc alloc) throws AllocCollisionException {
-        List<Block> heap = execHeapBySegment.computeIfAbsent(alloc.getSegment(), s -> newHeap(true));
+    public void alloc(Alloc alloc) throws AllocCollisionException {
+        BlockList heap = execHeapBySegment.computeIfAbsent(alloc.getSegment(), s -> new BlockList(verify));
+        allocations++;
 
-        if (heap.stream().anyMatch(block -> Objects.equals(alloc.getVariable(), block.getVariable()))) {
+        if (heap.get(alloc.getVariable()) != null) {
             return;
         }
 
-        Block finalBlock = finalHeapBySegment.computeIfAbsent(alloc.getSegment(), s -> newHeap(false))
-                .stream()
-                .filter(block -> alloc.getVariable().equals(block.getVariable()))
-                .findFirst()
-                .orElse(null);
+        finalHeapBySegment.computeIfAbsent(alloc.getSegment(), s -> newHeap());
+        Block finalBlock = finalBlockOf(alloc.getSegment(), alloc.getVariable());
 
         if (finalBlock != null) {
             allocFinalBlock(finalBlock, heap);
         } else {
             allocNewBlock(new Block(alloc), heap, 0);
         }
+
+        Block allocated = heap.get(alloc.getVariable());
+
+        if (allocated != null) {
+            int id = symbols.idOf(alloc.getVariable());
+
+            if (!activeFunctions.containsKey(allocated.getFunction())) {
+                retained.add(allocated.getFunction());
+            }
+
+            BitSet live = liveBySegment.computeIfAbsent(alloc.getSegment(), s -> new BitSet());
+            rowOf(interferences, id).or(live);
+            live.set(id);
+            peaksBySegment.merge(alloc.getSegment(), allocated.getOffsetPlusSize(), Math::max);
+        }
     }
 
-    private void allocFinalBlock(Block block, List<Block> heap) throws AllocCollisionException {
-        heap.removeIf(Block::isFree);
+    private void allocFinalBlock(Block block, BlockList heap) throws AllocCollisionException {
+        List<Block> collisions = heap.overlapping(block, true);
 
-        List<Block> toReallocate = heap.stream()
-                .filter(Block::isNotFinished)
-                .filter(allocated -> allocated.overlaps(block))
-                .collect(toList());
+        if (!collisions.isEmpty()) {
+            boolean learned = false;
+
+            for (Block finished : collisions) {
+                learned |= exclude(block, finished);
+                collided(block, finished);
+            }
+
+            int offset = relocationOf(block, heap);
+
+            if (learned && mustRestart(block, offset)) {
+                throw new AllocCollisionException();
+            }
+
+            block.setOffset(offset);
+            repairs++;
+        }
+
+        List<Block> toReallocate = heap.overlapping(block, false);
 
         heap.removeAll(toReallocate);
         heap.add(block);
-        heap.sort(comparing(Block::getOffset).thenComparing(Block::isFinished, reverseOrder()));
-
-        Optional<Block> collision = heap.stream()
-                .filter(Block::isFinished)
-                .filter(finished -> !finished.equals(block))
-                .filter(finished -> finished.overlaps(block))
-                .findFirst();
-
-        if (collision.isPresent()) {
-            Block other = collision.get();
-            excludents.computeIfAbsent(block.getVariable(), s -> new HashSet<>()).add(other.getVariable());
-            excludents.computeIfAbsent(other.getVariable(), s -> new HashSet<>()).add(block.getVariable());
+        heap.arrange();
+
+        for (Block overlapped : toReallocate) {
+            allocNewBlock(overlapped, heap, heap.indexOf(block) + 1);
+            relocateIfCollides(overlapped, heap);
+        }
+    }
+
+    // a block that moves may land on the final block of a variable it was alive with, which is not in the execution heap
+    // anymore, so it is moved again where it overlaps none of them
+    private void relocateIfCollides(Block block, BlockList heap) throws AllocCollisionException {
+        int id = symbols.idOf(block.getVariable());
+        boolean collided = false;
+        boolean learned = false;
+
+        for (Block other : finalHeapBySegment.get(block.getSegment())) {
+            int otherId = symbols.idOf(other.getVariable());
+
+            if (other.getSize() > 0 && block.getSize() > 0 && other.overlaps(block) && (interferes(id, otherId) || interferes(otherId, id))) {
+                collided = true;
+                learned |= exclude(block, other);
+                collided(block, other);
+            }
+        }
+
+        if (!collided) {
+            return;
+        }
+
+        heap.remove(block);
+        int offset = relocationOf(block, heap);
+
+        if (learned && mustRestart(block, offset)) {
             throw new AllocCollisionException();
         }
 
-        fillFreeSpaces(heap);
-        int validIndex = heap.indexOf(block) + 1;
-        toReallocate.forEach(overlapped -> allocNewBlock(overlapped, heap, validIndex));
+        block.setOffset(offset);
+        heap.add(block);
+        heap.arrange();
+        repairs++;
     }
 
-    private void allocNewBlock(Block block, List<Block> heap, int fromIndex) {
-        heap.stream()
+    private void allocNewBlock(Block block, BlockList heap, int fromIndex) {
+        heap.getAll(block.getFunction())
+                .stream()
                 .filter(block1 -> !block1.equals(block))
-                .filter(block1 -> Objects.equals(block.getFunction(), block1.getFunction())
-                        || refsByFunction.getOrDefault(block.getFunction(), emptyList()).stream().anyMatch(ref -> Objects.equals(ref.getTargetVar(), block1.getVariable())))
-                .filter(block1 -> Objects.equals(block.getSegment(), block1.getSegment()))
-                .forEach(block1 -> {
-                    excludents.computeIfAbsent(block.getVariable(), s -> new HashSet<>()).add(block1.getVariable());
-                    excludents.computeIfAbsent(block1.getVariable(), s -> new HashSet<>()).add(block.getVariable());
-                });
-
-        Optional<Block> overlapping = excludents.getOrDefault(block.getVariable(), emptySet())
+                .forEach(block1 -> exclude(block, block1));
+        refsByFunction.getOrDefault(block.getFunction(), emptyList())
                 .stream()
-                .map(variable -> Stream.concat(heap.stream(), finalHeapBySegment.getOrDefault(block.getSegment(), emptyList()).stream())
-                        .filter(other -> Objects.equals(other.getVariable(), variable))
-                        .findFirst()
-                        .orElse(null))
-                .filter(Objects::nonNull)
-                .max(comparingInt(Block::getOffsetPlusSize));
-
-        for (int i = fromIndex; i < heap.size(); i++) {
-            Block allocated = heap.get(i);
-
-            if (allocated.isFree()) {
-                if (overlapping.isPresent()) {
-                    Block overlapped = overlapping.get();
-
-                    if (allocated.getOffsetPlusSize() >= overlapped.getOffsetPlusSize() + block.getSize()) {
-                        block.setOffset(overlapped.getOffsetPlusSize());
-
-                        if (allocated.getOffset() < block.getOffset()) {
-                            Block free = new Block();
-                            free.setOffset(block.getOffsetPlusSize());
-                            free.setSize(allocated.getOffsetPlusSize() - block.getOffset() - block.getSize());
-                            allocated.setSize(allocated.getSize() - block.getSize() - free.getSize());
-                            heap.add(i + 1, block);
-                            heap.add(i + 2, free);
-                        } else if (allocated.getOffset() > block.getOffset()) {
-                            block.setOffset(allocated.getOffset());
-                            allocated.setOffset(block.getOffsetPlusSize());
-                            allocated.subSize(block);
-                            heap.add(i, block);
-                        } else {
-                            allocated.setOffset(block.getOffsetPlusSize());
-                            allocated.subSize(block);
-                            heap.add(i, block);
-                        }
-                    } else if (block.getFunction().equals(overlapped.getFunction()) // only alloc before overlapped if from same function
-                            && allocated.getSize() >= block.getSize() && allocated.getOffset() + block.getSize() <= overlapped.getOffset()) {
-                        if (allocated.getSize() > block.getSize()) {
-                            allocated.subSize(block);
-                            heap.add(i, block);
-                        } else if (allocated.getSize() == block.getSize()) {
-                            heap.set(i, block);
-                        }
-
-                        block.setOffset(allocated.getOffset());
-                        allocated.setOffset(block.getOffsetPlusSize());
-                    } else {
-                        continue;
-                    }
-
-                    return;
-                } else {
-                    if (allocated.getSize() > block.getSize()) {
-                        allocated.subSize(block);
-                        heap.add(i, block);
-                    } else if (allocated.getSize() == block.getSize()) {
-                        heap.set(i, block);
-                    } else {
-                        continue;
-                    }
-
-                    block.setOffset(allocated.getOffset());
-                    allocated.setOffset(block.getOffsetPlusSize());
-
-                    return;
-                }
+                .map(ref -> heap.get(ref.getTargetVar()))
+                .filter(block1 -> block1 != null && !block1.equals(block))
+                .forEach(block1 -> exclude(block, block1));
+
+        strategy.place(block, lastExcludent(block, heap), heap, fromIndex);
+    }
+
+    // the lowest offset that is free in the execution heap and does not overlap the final blocks of the variables the
+    // block was ever alive with, so nothing placed before has to move. If the segment would grow, a restart with the
+    // learned excludents usually packs it better.
+    private int relocationOf(Block block, BlockList heap) {
+        int id = symbols.idOf(block.getVariable());
+        List<int[]> taken = heap.stream()
+                .filter(Block::isNotFree)
+                .map(other -> new int[]{other.getOffset(), other.getOffsetPlusSize()})
+                .collect(toList());
+
+        for (Block other : finalHeapBySegment.get(block.getSegment())) {
+            int otherId = symbols.idOf(other.getVariable());
+
+            if (other != block && (interferes(id, otherId) || interferes(otherId, id))) {
+                taken.add(new int[]{other.getOffset(), other.getOffsetPlusSize()});
             }
         }
+
+        return Coloring.lowestOffset(taken, block.getSize());
     }
 
-    private static void fillFreeSpaces(List<Block> heap) {
-        if (heap.isEmpty()) {
-            Block free = new Block();
-            free.setSize(Integer.MAX_VALUE);
-            heap.add(free);
-            return;
+    // true if the block at the offset grows the segment and a restart is left to try to avoid it. A restart places the
+    // blocks again knowing the pairs of the collision, so it is only worth it if one of them is new.
+    private boolean mustRestart(Block block, int offset) {
+        if (offset + block.getSize() <= sizeOf(finalHeapBySegment.get(block.getSegment()))) {
+            return false;
+        }
+
+        if (restarts < maxRestarts) {
+            return true;
         }
 
-        for (int i = 0; i < heap.size(); i++) {
-            Block prev;
-            Block curr = heap.get(i);
+        capped = true;
+        return false;
+    }
+
+    private boolean interferes(int id, int otherId) {
+        return id < interferences.size() && interferences.get(id).get(otherId)
+                || id < excludents.size() && excludents.get(id).get(otherId);
+    }
+
+    // the allocated excludent that ends last, the first one on a tie
+    private Block lastExcludent(Block block, BlockList heap) {
+        BitSet excluded = rowOf(excludents, symbols.idOf(block.getVariable()));
+        Block last = null;
 
-            if (i == 0) {
-                if (curr.getOffset() > 0) {
-                    prev = new Block();
-                    prev.setSize(curr.getOffset());
-                    heap.add(0, prev);
-                }
+        for (int id = excluded.nextSetBit(0); id >= 0; id = excluded.nextSetBit(id + 1)) {
+            String variable = symbols.nameOf(id);
+            Block other = heap.get(variable);
 
-                continue;
+            if (other == null) {
+                other = finalBlockOf(block.getSegment(), variable);
             }
 
-            prev = heap.get(i - 1);
-
-            if (curr.getOffset() > prev.getOffsetPlusSize()) {
-                if (prev.isFree()) {
-                    prev.setSize(curr.getOffset() - prev.getOffset());
-                } else {
-                    Block free = new Block();
-                    free.setOffset(prev.getOffsetPlusSize());
-                    free.setSize(curr.getOffset() - free.getOffset());
-                    heap.add(i, free);
-                }
+            if (other != null && (last == null || other.getOffsetPlusSize() > last.getOffsetPlusSize())) {
+                last = other;
             }
         }
 
-        Block lastBlock = heap.get(heap.size() - 1);
+        return last;
+    }
 
-        if (lastBlock.isFree()) {
-            lastBlock.setSize(Integer.MAX_VALUE);
-        } else {
-            Block free = new Block();
-            free.setOffset(lastBlock.getOffsetPlusSize());
-            free.setSize(Integer.MAX_VALUE);
-            heap.add(heap.size(), free);
+    private Block finalBlockOf(String segment, String variable) {
+        return finalBlocksBySegment.getOrDefault(segment, emptyMap()).get(variable);
+    }
+
+    // true if the allocs are all in the final heap, out of the execution heap and clear of every block in it, so
+    // allocating and freeing them again only rearranges the free space
+    public boolean isDetached(List<Alloc> allocs) {
+        for (Alloc alloc : allocs) {
+            BlockList heap = execHeapBySegment.get(alloc.getSegment());
+            Block block = finalBlockOf(alloc.getSegment(), alloc.getVariable());
+
+            if (heap == null || block == null || heap.get(alloc.getVariable()) != null || !heap.overlapping(block, true).isEmpty() || !heap.overlapping(block, false).isEmpty()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // true if none of the allocs is in the execution heap
+    public boolean isOut(List<Alloc> allocs) {
+        return allocs.stream().noneMatch(alloc -> execHeapBySegment.containsKey(alloc.getSegment()) && execHeapBySegment.get(alloc.getSegment()).get(alloc.getVariable()) != null);
+    }
+
+    // does what allocating and freeing again detached allocs does
+    public void replay(List<Alloc> allocs) {
+        for (Alloc alloc : allocs) {
+            rowOf(interferences, symbols.idOf(alloc.getVariable())).or(liveBySegment.computeIfAbsent(alloc.getSegment(), s -> new BitSet()));
+        }
+
+        allocs.stream()
+                .map(Alloc::getSegment)
+                .distinct()
+                .forEach(segment -> execHeapBySegment.get(segment).arrange());
+    }
+
+    // true if the pair was not known yet
+    private boolean exclude(Block block, Block other) {
+        int id = symbols.idOf(block.getVariable());
+        int otherId = symbols.idOf(other.getVariable());
+        boolean learned = !rowOf(excludents, id).get(otherId);
+        rowOf(excludents, id).set(otherId);
+        rowOf(excludents, otherId).set(id);
+
+        return learned;
+    }
+
+    private static void collided(Block block, Block other) {
+        CollisionEvent event = Events.newCollisionEvent();
+
+        if (event != null && event.isEnabled()) {
+            event.commit(block.getSegment(), block.getVariable(), other.getVariable(), block.getOffset());
         }
     }
 
+    private static BitSet rowOf(List<BitSet> relation, int id) {
+        while (relation.size() <= id) {
+            relation.add(new BitSet());
+        }
+
+        return relation.get(id);
+    }
+
     private boolean canDereference(Block block) {
         if (block.isFree()) {
             return false;
@@ -354,27 +526,32 @@ public class Heap {
     }
 
     private boolean canDereference(String variable) {
-        String functionOfVariable = functionOf(variable);
+        int id = symbols.idOf(variable);
 
-        if (stack.stream().anyMatch(function -> function.getName().equals(functionOfVariable))) {
-            return false;
-        }
+        if (!checked.get(id)) {
+            boolean result = !activeFunctions.containsKey(functionOf(variable));
+
+            for (Ref ref : refsByTarget.getOrDefault(variable, emptyList())) {
+                result = result && canDereference(ref.getSourceVar());
+            }
 
-        List<String> pointers = refsByTarget.getOrDefault(variable, emptyList()).stream().map(Ref::getSourceVar).collect(toList());
+            dereferenceable.set(id, result);
+            checked.set(id);
+        }
 
-        return pointers.stream().allMatch(this::canDereference);
+        return dereferenceable.get(id);
     }
 
-    private static List<Block> newHeap(boolean fill) {
-        List<Block> heap = new ArrayList<>();
+    private static List<Block> newHeap() {
+        return new ArrayList<>();
+    }
 
-        if (fill) {
-            Block free = new Block();
-            free.setSize(Integer.MAX_VALUE);
-            heap.add(free);
-        }
+    public static int sizeOf(List<Block> blocks) {
+        return blocks.stream().mapToInt(block -> block.getOffset() + block.getSize()).max().orElse(0);
+    }
 
-        return heap;
+    public static boolean isZeroPage(String segment) {
+        return segment.equals("\"ZEROPAGE\"") || segment.equals(".zeropage");
     }
 
     public static String nameOf(String segment) {
@@ -0,0 +1,21 @@
+package com.parisoft.pa65.heap;
+
+import com.parisoft.pa65.pojo.Alloc;
+
+import java.util.Comparator;
+
+import static java.util.Comparator.comparingInt;
+
+// First fit, but the larger variables of each run of allocs are placed first, so the small ones fill the holes left
+class LargestFirst extends FirstFit {
+
+    @Override
+    public String getName() {
+        return "largest-first";
+    }
+
+    @Override
+    public Comparator<Alloc> getAllocOrder() {
+        return comparingInt(Alloc::getSize).reversed();
+    }
+}
@@ -0,0 +1,241 @@
+package com.parisoft.pa65.heap;
+
+import com.parisoft.pa65.pojo.Block;
+import com.parisoft.pa65.util.SymbolTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Comparator.comparingInt;
+
+// Places the blocks of a segment again with the smallest possible size, by branch and bound over the orders of the
+// blocks. Each block goes to the lowest offset clear of its neighbours already placed, as in the coloring, and some
+// order gives an optimal layout. Only orders whose offsets never decrease are tried, every optimal layout can be
+// reached by one of them. The first block of the order is tried in parallel, and the search stops when the time is
+// over, keeping the best layout found so far.
+class Packing {
+
+    private static final int CHECK_INTERVAL = 1024; // nodes between checks of the deadline
+
+    private final List<Block> segment;
+    private final List<Block> blocks = new ArrayList<>(); // the ones with bytes
+    private final int[] sizes;
+    private final int[][] neighbours; // by block index
+    private final AtomicInteger best; // size of the best layout
+    private final int lowerBound;
+    private final long deadline;
+    private int[] bestOffsets; // null while the current layout is the best
+    private volatile boolean timedOut;
+
+    Packing(SymbolTable symbols, List<BitSet> interferences, List<Block> segment, long budgetNanos) {
+        this.segment = segment;
+        segment.stream().filter(block -> block.getSize() > 0).forEach(blocks::add);
+        blocks.sort(comparingInt(Block::getSize).reversed()); // large blocks first find a good layout sooner
+
+        Map<Block, List<Block>> neighboursByBlock = Coloring.neighboursOf(symbols, interferences, blocks);
+        Map<Block, Integer> indexes = new IdentityHashMap<>();
+        sizes = new int[blocks.size()];
+        neighbours = new int[blocks.size()][];
+
+        for (int i = 0; i < blocks.size(); i++) {
+            indexes.put(blocks.get(i), i);
+            sizes[i] = blocks.get(i).getSize();
+        }
+
+        for (int i = 0; i < blocks.size(); i++) {
+            neighbours[i] = neighboursByBlock.get(blocks.get(i)).stream().mapToInt(indexes::get).distinct().toArray();
+        }
+
+        best = new AtomicInteger(Heap.sizeOf(segment));
+        lowerBound = lowerBound();
+        deadline = System.nanoTime() + budgetNanos;
+    }
+
+    // searches until the layout is optimal or the time is over and moves the blocks if a smaller layout was found
+    void pack(int jobs) {
+        if (blocks.isEmpty() || best.get() <= lowerBound) {
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(jobs);
+
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>();
+
+            for (int first = 0; first < blocks.size(); first++) {
+                int root = first;
+                tasks.add(() -> {
+                    new Search().place(root, 0);
+                    return null;
+                });
+            }
+
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            timedOut = true;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        if (bestOffsets != null) {
+            segment.stream().filter(block -> block.getSize() <= 0).forEach(block -> block.setOffset(0));
+
+            for (int i = 0; i < blocks.size(); i++) {
+                blocks.get(i).setOffset(bestOffsets[i]);
+            }
+        }
+    }
+
+    int getSize() {
+        return best.get();
+    }
+
+    // true if the size is proven to be the smallest possible
+    boolean isOptimal() {
+        return !timedOut || best.get() <= lowerBound;
+    }
+
+    int getLowerBound() {
+        return lowerBound;
+    }
+
+    // no layout is smaller than the bytes of blocks that were all in the execution heap together
+    private int lowerBound() {
+        int bound = 0;
+
+        for (int i = 0; i < blocks.size(); i++) { // a clique around each block, taking the largest neighbours first
+            List<Integer> clique = new ArrayList<>();
+            int bytes = sizes[i];
+
+            Integer[] candidates = Arrays.stream(neighbours[i]).boxed().sorted(comparingInt(j -> -sizes[j])).toArray(Integer[]::new);
+
+            for (int candidate : candidates) {
+                if (clique.stream().allMatch(member -> contains(neighbours[candidate], member))) {
+                    clique.add(candidate);
+                    bytes += sizes[candidate];
+                }
+            }
+
+            bound = Math.max(bound, bytes);
+        }
+
+        return bound;
+    }
+
+    private synchronized void found(int size, int[] offsets) {
+        if (size < best.get()) {
+            best.set(size);
+            bestOffsets = offsets.clone();
+        }
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // the state of one thread of the search
+    private class Search {
+
+        private final int[] offsets = new int[blocks.size()]; // -1 if not placed
+        private final List<int[]> taken = new ArrayList<>();
+        private int placed;
+        private long nodes;
+
+        Search() {
+            Arrays.fill(offsets, -1);
+        }
+
+        // places the block at the offset, then every block that can follow it
+        void place(int block, int size) {
+            if (timedOut || ++nodes % CHECK_INTERVAL == 0 && System.nanoTime() > deadline) {
+                timedOut = true;
+                return;
+            }
+
+            int offset = lowestOffset(block);
+            int peak = Math.max(size, offset + sizes[block]);
+
+            if (peak >= best.get() || best.get() <= lowerBound) { // nothing better or already optimal
+                return;
+            }
+
+            offsets[block] = offset;
+            placed++;
+
+            if (placed == blocks.size()) {
+                found(peak, offsets);
+            } else {
+                next(block, offset, peak);
+            }
+
+            offsets[block] = -1;
+            placed--;
+        }
+
+        private void next(int last, int lastOffset, int peak) {
+            int[] lowest = new int[blocks.size()];
+            int bound = peak;
+
+            for (int i = 0; i < blocks.size(); i++) {
+                if (offsets[i] < 0) {
+                    lowest[i] = lowestOffset(i);
+                    bound = Math.max(bound, Math.max(lowest[i], lastOffset) + sizes[i]); // offsets never decrease
+                }
+            }
+
+            if (bound >= best.get()) {
+                return;
+            }
+
+            List<Integer> candidates = new ArrayList<>();
+
+            for (int i = 0; i < blocks.size(); i++) {
+                if (offsets[i] < 0 && (lowest[i] > lastOffset || lowest[i] == lastOffset && i > last)) {
+                    candidates.add(i);
+                }
+            }
+
+            candidates.sort(comparingInt(i -> lowest[i])); // lowest first, then larger as the blocks are sorted
+
+            for (int candidate : candidates) {
+                place(candidate, peak);
+
+                if (timedOut || best.get() <= lowerBound) {
+                    return;
+                }
+            }
+        }
+
+        private int lowestOffset(int block) {
+            taken.clear();
+
+            for (int neighbour : neighbours[block]) {
+                if (offsets[neighbour] >= 0) {
+                    taken.add(new int[]{offsets[neighbour], offsets[neighbour] + sizes[neighbour]});
+                }
+            }
+
+            return Coloring.lowestOffset(taken, sizes[block]);
+        }
+    }
+}
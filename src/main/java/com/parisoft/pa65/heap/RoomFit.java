@@ -0,0 +1,106 @@
+package com.parisoft.pa65.heap;
+
+import com.parisoft.pa65.pojo.Block;
+
+import java.util.Iterator;
+
+// Compares every free block that can take the block by the room left in it, the first one on a tie. The free block
+// at the end of the heap has no end, so it is taken only when no other can take the block. Each allocation walks every
+// block of the heap, O(n) where first fit is O(log n): the aggregates of the treap give the largest free block of a
+// subtree, not the one that leaves the least or the most room for a given size.
+abstract class RoomFit implements AllocationStrategy {
+
+    @Override
+    public void place(Block block, Block overlapped, BlockList heap, int fromIndex) {
+        int start = overlapped != null ? overlapped.getOffsetPlusSize() : 0;
+        int limit = overlapped != null && block.getFunction().equals(overlapped.getFunction()) // only alloc before overlapped if from same function
+                ? overlapped.getOffset()
+                : -1;
+        int i = indexOfFree(heap, fromIndex, block.getSize(), start, limit);
+
+        if (i < 0) {
+            return;
+        }
+
+        Block allocated = heap.get(i);
+
+        if (allocated.getOffset() < start && allocated.getOffsetPlusSize() >= (long) start + block.getSize()) { // right after overlapped
+            Block free = new Block();
+            block.setOffset(start);
+            free.setOffset(block.getOffsetPlusSize());
+            free.setSize(allocated.getOffsetPlusSize() - block.getOffset() - block.getSize());
+            allocated.setSize(block.getOffset() - allocated.getOffset()); // unlike first fit, as the end of the last free block is capped
+            heap.update(allocated);
+            heap.add(i + 1, block);
+            heap.add(i + 2, free);
+        } else {
+            heap.allocBefore(i, block);
+        }
+    }
+
+    // index of the free block from fromIndex where a block of size bytes goes, either at or after start or wholly
+    // before limit, -1 if none can take it. A negative limit allows no block before start.
+    private int indexOfFree(BlockList heap, int fromIndex, int size, int start, int limit) {
+        Iterator<Block> blocks = heap.stream().iterator();
+        int chosen = -1;
+        int last = -1; // the free block with no end
+        long chosenRoom = 0;
+
+        for (int index = 0; blocks.hasNext(); index++) {
+            Block free = blocks.next();
+
+            if (index < fromIndex || !fits(free, size, start, limit)) {
+                continue;
+            }
+
+            long room = (long) free.getSize() - size;
+
+            if (free.getOffsetPlusSize() == Integer.MAX_VALUE) {
+                last = last < 0 ? index : last;
+            } else if (chosen < 0 || isBetter(room, chosenRoom)) {
+                chosen = index;
+                chosenRoom = room;
+            }
+        }
+
+        return chosen >= 0 ? chosen : last;
+    }
+
+    // true if a free block with the room left is better than the one chosen so far
+    abstract boolean isBetter(long room, long chosenRoom);
+
+    // same as the queries of first fit: enough bytes that end at or after start plus size, or that begin before limit
+    private static boolean fits(Block free, int size, int start, int limit) {
+        return free.isFree()
+                && free.getSize() >= size
+                && (free.getOffsetPlusSize() >= (long) start + size || free.getOffset() + size <= limit);
+    }
+
+    // the free block that leaves the least room, so the large ones are kept for large blocks
+    static class BestFit extends RoomFit {
+
+        @Override
+        public String getName() {
+            return "best-fit";
+        }
+
+        @Override
+        boolean isBetter(long room, long chosenRoom) {
+            return room < chosenRoom;
+        }
+    }
+
+    // the free block that leaves the most room, so what is left can still take another block
+    static class WorstFit extends RoomFit {
+
+        @Override
+        public String getName() {
+            return "worst-fit";
+        }
+
+        @Override
+        boolean isBetter(long room, long chosenRoom) {
+            return room > chosenRoom;
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package com.parisoft.pa65.output;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.util.stream.IntStream;
 
 import static java.lang.System.lineSeparator;
@@ -13,29 +17,38 @@ public class Macros {
         this.vector = vector;
     }
 
-    @Override
-    public String toString() {
-        StringBuilder builder = new StringBuilder();
-        builder.append("\t.feature leading_dot_in_identifiers").append(lineSeparator())
+    public void print(Writer writer) throws IOException {
+        writer.append("\t.feature leading_dot_in_identifiers").append(lineSeparator())
                 .append(lineSeparator());
 
-        buildFunc(builder);
+        printFunc(writer);
 
-        buildPfree(builder);
+        printPfree(writer);
 
-        buildPref(builder);
+        printPref(writer);
 
-        buildFuncTable(builder);
+        printFuncTable(writer);
 
-        buildJtx(builder);
+        printJtx(writer);
+
+        printJty(writer);
+    }
+
+    @Override
+    public String toString() {
+        StringWriter writer = new StringWriter();
 
-        buildJty(builder);
+        try {
+            print(writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
 
-        return builder.toString();
+        return writer.toString();
     }
 
-    private void buildJtx(StringBuilder builder) {
-        builder.append("\t; Jump to a function by RTS trick").append(lineSeparator())
+    private void printJtx(Writer writer) throws IOException {
+        writer.append("\t; Jump to a function by RTS trick").append(lineSeparator())
                 .append("\t; @param table\tA function table defined as .ftable").append(lineSeparator())
                 .append("\t; @param X\tRegister X loaded with the function index").append(lineSeparator())
                 .append("\t.macro jtx table").append(lineSeparator())
@@ -48,8 +61,8 @@ public class Macros {
                 .append(lineSeparator());
     }
 
-    private void buildJty(StringBuilder builder) {
-        builder.append("\t; Jump to a function by RTS trick").append(lineSeparator())
+    private void printJty(Writer writer) throws IOException {
+        writer.append("\t; Jump to a function by RTS trick").append(lineSeparator())
                 .append("\t; @param table\tA function table defined as .ftable").append(lineSeparator())
                 .append("\t; @param Y\tRegister Y loaded with the function index").append(lineSeparator())
                 .append("\t.macro jty table").append(lineSeparator())
@@ -62,8 +75,8 @@ public class Macros {
                 .append(lineSeparator());
     }
 
-    private void buildFuncTable(StringBuilder builder) {
-        builder.append("\t; Table of functions to be called with jtx or jty").append(lineSeparator())
+    private void printFuncTable(Writer writer) throws IOException {
+        writer.append("\t; Table of functions to be called with jtx or jty").append(lineSeparator())
                 .append("\t; @param name\tThe name of the table").append(lineSeparator())
                 .append("\t; @param funcs\tArray of functions").append(lineSeparator())
                 .append("\t.macro .ftable name, funcs").append(lineSeparator())
@@ -76,23 +89,23 @@ public class Macros {
                 .append(lineSeparator());
     }
 
-    private void buildPref(StringBuilder builder) {
-        builder.append("\t; Create a reference of a variable defined on another function").append(lineSeparator())
+    private void printPref(Writer writer) throws IOException {
+        writer.append("\t; Create a reference of a variable defined on another function").append(lineSeparator())
                 .append("\t; @param v1\tThe name of the referer variable").append(lineSeparator())
                 .append("\t; @param v2\tThe name of the referee variable").append(lineSeparator())
                 .append("\t.define .pref(v1,v2) v1 = v2").append(lineSeparator())
                 .append(lineSeparator());
     }
 
-    private void buildPfree(StringBuilder builder) {
-        builder.append("\t; Free a memory space allocated by some variables").append(lineSeparator())
+    private void printPfree(Writer writer) throws IOException {
+        writer.append("\t; Free a memory space allocated by some variables").append(lineSeparator())
                 .append("\t.macro .pfree ").append(IntStream.rangeClosed(1, 32).mapToObj(v -> "v" + v).collect(joining(", "))).append(lineSeparator())
                 .append("\t.endmac").append(lineSeparator())
                 .append(lineSeparator());
     }
 
-    private void buildFunc(StringBuilder builder) {
-        builder.append("\t; Declare a function").append(lineSeparator())
+    private void printFunc(Writer writer) throws IOException {
+        writer.append("\t; Declare a function").append(lineSeparator())
                 .append("\t; @param name\tThe name of the function").append(lineSeparator())
                 .append("\t.macro .func name").append(lineSeparator())
                 .append("\t.if .xmatch(name, ").append(vector).append(")").append(lineSeparator())
@@ -108,7 +121,7 @@ public class Macros {
                 .append("\t.endmac").append(lineSeparator())
                 .append(lineSeparator());
 
-        builder.append("\t; Ends a function declaration").append(lineSeparator())
+        writer.append("\t; Ends a function declaration").append(lineSeparator())
                 .append("\t.macro .endfunc").append(lineSeparator())
                 .append("\t.endscope").append(lineSeparator())
                 .append("\t.undefine .palloc").append(lineSeparator())
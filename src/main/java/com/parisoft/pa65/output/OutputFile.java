@@ -0,0 +1,77 @@
+package com.parisoft.pa65.output;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+// Generated file written through a temporary file next to it. The temporary file replaces the file in one move, and
+// only if the content changed, so an unchanged file keeps its modification time and make does not rebuild what
+// includes it.
+public class OutputFile {
+
+    private final Path path;
+
+    public OutputFile(Path path) {
+        this.path = path.toAbsolutePath();
+    }
+
+    // true if the file was written
+    public boolean write(Content content) throws IOException {
+        Path tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+
+        try {
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(tmp)))) {
+                content.print(writer);
+            }
+
+            if (sameContent(tmp, path)) {
+                return false;
+            }
+
+            try {
+                Files.move(tmp, path, REPLACE_EXISTING, ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) { // some file systems cannot, a plain move is the best left
+                Files.move(tmp, path, REPLACE_EXISTING);
+            }
+
+            return true;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static boolean sameContent(Path a, Path b) throws IOException {
+        if (!Files.isRegularFile(b) || Files.size(a) != Files.size(b)) {
+            return false;
+        }
+
+        try (InputStream in1 = new BufferedInputStream(Files.newInputStream(a));
+             InputStream in2 = new BufferedInputStream(Files.newInputStream(b))) {
+            int c;
+
+            do {
+                c = in1.read();
+
+                if (c != in2.read()) {
+                    return false;
+                }
+            } while (c >= 0);
+        }
+
+        return true;
+    }
+
+    public interface Content {
+
+        void print(Writer writer) throws IOException;
+    }
+}
@@ -4,9 +4,16 @@ import com.parisoft.pa65.heap.Heap;
 import com.parisoft.pa65.pojo.Block;
 import com.parisoft.pa65.pojo.Ref;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Function;
 
 import static com.parisoft.pa65.util.VariableUtils.functionOf;
 import static java.lang.System.lineSeparator;
@@ -14,7 +21,6 @@ import static java.util.Collections.emptyList;
 import static java.util.Comparator.comparing;
 import static java.util.Comparator.comparingInt;
 import static java.util.stream.Collectors.toList;
-import static java.util.stream.Collectors.toMap;
 
 public class Scopes {
 
@@ -26,66 +32,125 @@ public class Scopes {
 
     @Override
     public String toString() {
-        StringBuilder builder = new StringBuilder();
+        StringWriter writer = new StringWriter();
 
-        Map<String, Scope> scopeByName = heap.getBlocksByFunction().entrySet().stream()
-                .map(entry -> {
-                    Scope scope = new Scope();
-                    scope.name = entry.getKey();
-                    scope.blocks = entry.getValue();
+        try {
+            print(writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
 
-                    return scope;
-                })
-                .collect(toMap(scope -> scope.name, Function.identity()));
+        return writer.toString();
+    }
 
-        heap.getRefsByFunction()
-                .forEach((func, refs) -> scopeByName.compute(func, (name, scope) -> {
-                    if (scope == null) {
-                        scope = new Scope();
-                        scope.name = name;
-                    }
+    // each scope goes to the writer as soon as it is built
+    public void print(Writer writer) throws IOException {
+        Map<String, Scope> scopeByName = new HashMap<>(); // filled in the order of the final heaps, as it always was
+        Map<String, Integer> segmentIndexes = new HashMap<>();
 
-                    scope.refs = refs;
+        heap.getBlocksBySegment().forEach((segment, blocks) -> {
+            segmentIndexes.put(segment, segmentIndexes.size());
+            blocks.forEach(block -> scopeOf(block.getFunction(), scopeByName));
+        });
+        heap.getBlocksByFunction().forEach((name, blocks) -> scopeOf(name, scopeByName).blocks = blocks);
+        heap.getRefsByFunction().forEach((name, refs) -> scopeOf(name, scopeByName).refs = refs);
 
-                    return scope;
-                }));
+        // the scopes without refs come first, then each scope with refs after the scopes it refers to, from the one
+        // with the fewest refs, which is the order the scopes always had
+        List<Scope> scopes = new ArrayList<>(scopeByName.size());
+        ArrayDeque<Scope> path = new ArrayDeque<>();
 
-        List<Scope> scopes = scopeByName.values()
+        scopeByName.values()
                 .stream()
                 .filter(scope -> scope.refs.isEmpty())
-                .collect(toList());
-
-        scopeByName.values()
+                .forEach(scope -> {
+                    scope.state = Scope.DONE;
+                    scopes.add(scope);
+                });
+        List<Scope> dependents = scopeByName.values()
                 .stream()
                 .filter(scope -> scope.refs.size() > 0)
                 .sorted(comparingInt(scope -> scope.refs.size()))
-                .forEach(scope -> addDependencies(scope.name, scopeByName, scopes));
+                .collect(toList());
+
+        for (Scope dependent : dependents) {
+            if (dependent.state == Scope.DONE) {
+                continue;
+            }
 
-        scopes.forEach(scope -> {
+            dependent.state = Scope.ON_PATH;
+            path.push(dependent);
+
+            while (!path.isEmpty()) { // depth first, with the path on a stack as chains of refs can be long
+                Scope scope = path.peek();
+
+                if (scope.next == scope.refs.size()) {
+                    scope.state = Scope.DONE;
+                    scopes.add(path.pop());
+                    continue;
+                }
+
+                Scope dependency = scopeByName.get(functionOf(scope.refs.get(scope.next++).getTargetVar()));
+
+                if (dependency == null || dependency == scope || dependency.state == Scope.DONE) {
+                    continue;
+                }
+
+                if (dependency.state == Scope.ON_PATH) {
+                    throw new IllegalArgumentException("Cyclic .pref chain between scopes: " + cycleOf(path, dependency));
+                }
+
+                dependency.state = Scope.ON_PATH;
+                path.push(dependency);
+            }
+        }
+
+        for (Scope scope : scopes) {
+            StringBuilder builder = new StringBuilder();
             int maxLen = Math.max(scope.blocks.stream().map(Block::getShortVariable).mapToInt(String::length).max().orElse(1),
                                   scope.refs.stream().map(Ref::getShortSourceVar).mapToInt(String::length).max().orElse(1));
             builder.append("\t.scope ").append(scope.name).append(lineSeparator());
-            scope.blocks.sort(comparing(Block::getOffset));
-            scope.blocks.forEach(block -> builder.append("\t").append(rpad(block.getShortVariable(), maxLen)).append(" = ").append(Heap.nameOf(block.getSegment())).append("+").append(rpad(block.getOffset(), 2))
+            scope.blocks.stream()
+                    .sorted(comparing(Block::getOffset).thenComparing(block -> segmentIndexes.get(block.getSegment())))
+                    .forEach(block -> builder.append("\t").append(rpad(block.getShortVariable(), maxLen)).append(" = ").append(Heap.nameOf(block.getSegment())).append("+").append(rpad(block.getOffset(), 2))
                     .append("\t; Segment=").append(block.getSegment()).append(" Size=").append(Integer.toHexString(block.getSize()))
                     .append(lineSeparator()));
             scope.refs.forEach(ref -> builder.append("\t").append(rpad(ref.getShortSourceVar(), maxLen)).append(" = ").append(ref.getTargetVar()).append(lineSeparator()));
             builder.append("\t.endscope").append(lineSeparator())
                     .append(lineSeparator());
-        });
+            writer.write(builder.toString());
+        }
+    }
 
-        return builder.toString();
+    private static Scope scopeOf(String name, Map<String, Scope> scopeByName) {
+        return scopeByName.computeIfAbsent(name, s -> {
+            Scope scope = new Scope();
+            scope.name = name;
+
+            return scope;
+        });
     }
 
-    private static void addDependencies(String scopeName, Map<String, Scope> scopeByName, List<Scope> scopes) {
-        Scope scope = scopeByName.get(scopeName);
-        scope.refs.forEach(ref -> addDependencies(functionOf(ref.getTargetVar()), scopeByName, scopes));
+    // the refs followed from the scope on the path back to the top of the path
+    private static String cycleOf(ArrayDeque<Scope> path, Scope scope) {
+        List<String> chain = new ArrayList<>();
+        Iterator<Scope> scopes = path.descendingIterator();
+        Scope next = scopes.next();
 
-        if (scopes.contains(scope)) {
-            return;
+        while (next != scope) {
+            next = scopes.next();
         }
 
-        scopes.add(scope);
+        while (true) {
+            Ref ref = next.refs.get(next.next - 1);
+            chain.add(next.name + "::" + ref.getShortSourceVar() + " -> " + ref.getTargetVar());
+
+            if (!scopes.hasNext()) {
+                return String.join(", ", chain);
+            }
+
+            next = scopes.next();
+        }
     }
 
     private static String rpad(Object o, int len) {
@@ -98,35 +163,16 @@ public class Scopes {
         return builder.toString();
     }
 
-    class Scope implements Comparable<Scope> {
+    static class Scope {
 
         String name;
         List<Block> blocks = emptyList();
         List<Ref> refs = emptyList();
+        int state; // NEW, ON_PATH or DONE
+        int next; // index of the next ref to follow
 
-        @Override
-        public int compareTo(Scope that) {
-            if (this.refs.isEmpty() && that.refs.isEmpty()) {
-                return this.name.compareTo(that.name);
-            }
-
-            if (this.refs.isEmpty()) {
-                return -1;
-            }
-
-            if (that.refs.isEmpty()) {
-                return 1;
-            }
-
-            if (this.refs.stream().anyMatch(ref -> functionOf(ref.getTargetVar()).equals(that.name))) {
-                return 1;
-            }
-
-            if (that.refs.stream().anyMatch(ref -> functionOf(ref.getTargetVar()).equals(this.name))) {
-                return -1;
-            }
-
-            return 0;
-        }
+        static final int NEW = 0;
+        static final int ON_PATH = 1;
+        static final int DONE = 2;
     }
 }
@@ -1,6 +1,14 @@
 package com.parisoft.pa65.output;
 
 import com.parisoft.pa65.heap.Heap;
+import com.parisoft.pa65.pojo.Block;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
 
 import static java.lang.System.lineSeparator;
 
@@ -14,34 +22,48 @@ public class Segments {
         this.heap = heap;
     }
 
-    @Override
-    public String toString() {
-        StringBuilder builder = new StringBuilder();
+    public void print(Writer writer) throws IOException {
+        for (String segment : heap.getBlocksBySegment().keySet()) {
+            writer.append(Heap.isZeroPage(segment) ? "\t.globalzp " : "\t.global ").append(Heap.nameOf(segment)).append(lineSeparator());
+        }
 
-        heap.getBlocksBySegment().keySet().forEach(segment -> builder.append(segment.equals("\"ZEROPAGE\"") || segment.equals(".zeropage") ? "\t.globalzp " : "\t.global ").append(Heap.nameOf(segment)).append(lineSeparator()));
-        builder.append(lineSeparator());
+        writer.append(lineSeparator());
 
-        builder.append("\t.macro " + PA_65_ALLOC_HEAP).append(lineSeparator())
+        writer.append("\t.macro " + PA_65_ALLOC_HEAP).append(lineSeparator())
                 .append("\t.pushseg").append(lineSeparator())
                 .append(lineSeparator());
-        heap.getBlocksBySegment().forEach((segment, heap) -> {
-            int heapSize = heap.stream().mapToInt(block -> block.getOffset() + block.getSize()).max().orElse(0);
+
+        for (Map.Entry<String, List<Block>> entry : heap.getBlocksBySegment().entrySet()) {
+            String segment = entry.getKey();
+            int heapSize = Heap.sizeOf(entry.getValue());
 
             if (heapSize > 0) {
                 if (segment.startsWith(".")) {
-                    builder.append("\t").append(segment).append(lineSeparator());
+                    writer.append("\t").append(segment).append(lineSeparator());
                 } else {
-                    builder.append("\t").append(".segment ").append(segment).append(lineSeparator());
+                    writer.append("\t").append(".segment ").append(segment).append(lineSeparator());
                 }
 
-                builder.append(Heap.nameOf(segment)).append(":\t.res ").append("$").append(Integer.toHexString(heapSize)).append(lineSeparator())
+                writer.append(Heap.nameOf(segment)).append(":\t.res ").append("$").append(Integer.toHexString(heapSize)).append(lineSeparator())
                         .append(lineSeparator());
             }
-        });
-        builder.append("\t.popseg").append(lineSeparator())
+        }
+
+        writer.append("\t.popseg").append(lineSeparator())
                 .append("\t.endmac").append(lineSeparator())
                 .append(lineSeparator());
+    }
+
+    @Override
+    public String toString() {
+        StringWriter writer = new StringWriter();
+
+        try {
+            print(writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
 
-        return builder.toString();
+        return writer.toString();
     }
 }
@@ -1,19 +1,15 @@
 package com.parisoft.pa65.output;
 
-import com.parisoft.pa65.pojo.Call;
-import com.parisoft.pa65.pojo.Function;
+import com.parisoft.pa65.util.CallGraph;
 
-import java.util.ArrayDeque;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Deque;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import static java.lang.System.lineSeparator;
-import static java.util.Collections.emptyList;
-import static java.util.stream.Collectors.toList;
 
 public class StackTrace {
 
@@ -21,41 +17,53 @@ public class StackTrace {
     private static final String PADDING_WITH_COLUMN = "   |   ";
     private static final String PADDING_WITH_ENTRY = "   +-- ";
     private static final String PADDING_WITH_RECURSION = "   @-- ";
+    private static final String SEE_ABOVE = " (see above)";
 
-    private final Map<String, List<String>> functions;
+    private final CallGraph graph;
     private final List<String> vectors;
-    private final Deque<String> stack;
+    private final int[] stack; // times each function is on the stack
+    private final boolean compressed; // print the calls of each function only the first time it appears
+    private final boolean[] printed; // functions whose calls were printed
 
-    public StackTrace(Collection<Function> functions, List<String> vectors) {
-        this.functions = new HashMap<>(functions.size());
+    public StackTrace(CallGraph graph, List<String> vectors) {
+        this(graph, vectors, false);
+    }
+
+    public StackTrace(CallGraph graph, List<String> vectors, boolean compressed) {
+        this.graph = graph;
         this.vectors = vectors;
+        this.stack = new int[graph.size()];
+        this.compressed = compressed;
+        this.printed = new boolean[graph.size()];
+    }
 
-        for (Function function : functions) {
-            this.functions.put(function.getName(),
-                               function.getStmts().stream()
-                                       .filter(o -> o instanceof Call)
-                                       .map(o -> (Call) o)
-                                       .filter(Call::isValid)
-                                       .map(Call::getFunction)
-                                       .collect(toList()));
+    public String print() {
+        StringWriter tree = new StringWriter();
+
+        try {
+            print(tree);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
 
-        stack = new ArrayDeque<>(functions.size());
+        return tree.toString();
     }
 
-    public String print() {
-        StringBuilder tree = new StringBuilder();
-
+    // the tree goes straight to the writer, which should be buffered
+    public void print(Writer tree) throws IOException {
         for (String vector : vectors) {
-            printTree(vector, new ArrayList<>(), tree);
-            tree.append(lineSeparator());
+            printTree(graph.idOf(vector), new ArrayList<>(), tree);
+            tree.write(lineSeparator());
         }
 
-        return tree.toString();
+        tree.flush();
     }
 
-    private void printTree(String function, List<Boolean> moreFunctionsInHierarchy, StringBuilder tree) {
+    private void printTree(int function, List<Boolean> moreFunctionsInHierarchy, Writer tree) throws IOException {
         StringBuilder line = new StringBuilder();
+        boolean recursion = graph.isRecursive(function) && stack[function] > 0;
+        final int[] list = graph.getCallees(function);
+        boolean seen = compressed && !recursion && list.length > 0 && printed[function];
 
         if (moreFunctionsInHierarchy.size() > 0) {
             for (boolean hasColumn : moreFunctionsInHierarchy.subList(0, moreFunctionsInHierarchy.size() - 1)) {
@@ -64,27 +72,31 @@ public class StackTrace {
         }
 
         if (moreFunctionsInHierarchy.size() > 0) {
-            String entry = line.toString() + (stack.contains(function) ? PADDING_WITH_RECURSION : PADDING_WITH_ENTRY);
+            String entry = line.toString() + (recursion ? PADDING_WITH_RECURSION : PADDING_WITH_ENTRY);
             line.append(PADDING_WITH_COLUMN)
                     .append(lineSeparator())
                     .append(entry);
         }
 
-        tree.append(line)
-                .append(function)
-                .append(lineSeparator());
+        line.append(graph.nameOf(function));
+
+        if (seen) {
+            line.append(SEE_ABOVE);
+        }
+
+        tree.write(line.append(lineSeparator()).toString());
 
-        if (stack.contains(function)) { // avoid recursion
+        if (recursion || seen) { // avoid recursion and repeated subtrees
             return;
         }
 
-        final List<String> list = functions.getOrDefault(function, emptyList());
+        printed[function] = true;
 
-        for (int i = 0; i < list.size(); i++) {
-            moreFunctionsInHierarchy.add(i < list.size() - 1);
-            stack.push(function);
-            printTree(list.get(i), moreFunctionsInHierarchy, tree);
-            stack.poll();
+        for (int i = 0; i < list.length; i++) {
+            moreFunctionsInHierarchy.add(i < list.length - 1);
+            stack[function]++;
+            printTree(list[i], moreFunctionsInHierarchy, tree);
+            stack[function]--;
             moreFunctionsInHierarchy.remove(moreFunctionsInHierarchy.size() - 1);
         }
     }
@@ -0,0 +1,418 @@
+package com.parisoft.pa65.parser;
+
+// Single pass lexer that accepts exactly the same lines as RegexLexer.
+// Lines that do not start with the shape of a directive or a jump are rejected by the first characters.
+class DefaultLexer extends Lexer {
+
+    private static final String[] JUMPS = {"jsr", "jmp", "jsl", "jml", "jeq", "jne", "jmi", "jpl", "jcs", "jcc", "jvs", "jvc", "jtx", "jty"};
+
+    private final int[] starts = new int[4];
+    private final int[] ends = new int[4];
+    private CharSequence line;
+
+    @Override
+    boolean isFuncOpen(CharSequence line) {
+        reset(line);
+
+        if (!keyword(line, 0, ".func")) {
+            return false;
+        }
+
+        int spaces = 5;
+        int name = skipSpaces(line, spaces);
+
+        if (name == spaces) {
+            return false;
+        }
+
+        if (name == line.length() || isCommentOrLineCont(line.charAt(name))) {
+            if (name - spaces < 2) { // the name takes the last space
+                return false;
+            }
+
+            name--;
+        }
+
+        int end = name;
+
+        while (end < line.length() && !isCommentOrLineCont(line.charAt(end))) {
+            end++;
+        }
+
+        return anyToEnd(line, end) && group(1, name, end);
+    }
+
+    @Override
+    boolean isTable(CharSequence line) {
+        reset(line);
+
+        int pos = directive(line);
+
+        return pos >= 0 && keyword(line, pos, ".ftable") && table(line, pos + 7);
+    }
+
+    @Override
+    int next(CharSequence line) {
+        reset(line);
+
+        int pos = directive(line);
+
+        if (pos >= 0) {
+            if (keyword(line, pos, ".palloc")) {
+                return alloc(line, pos + 7) ? ALLOC : NONE;
+            } else if (keyword(line, pos, ".pref")) {
+                return ref(line, pos + 5) ? REF : NONE;
+            } else if (keyword(line, pos, ".pfree")) {
+                return free(line, pos + 6) ? FREE : NONE;
+            } else if (keyword(line, pos, ".ftable")) {
+                return table(line, pos + 7) ? TABLE : NONE;
+            } else if (pos == 0 && keyword(line, pos, ".endfunc")) {
+                return trailing(line, pos + 8) ? FUNC_CLOSE : NONE;
+            }
+
+            return NONE;
+        }
+
+        return call(line) ? CALL : NONE;
+    }
+
+    @Override
+    String group(int group) {
+        return starts[group] < 0 ? null : line.subSequence(starts[group], ends[group]).toString();
+    }
+
+    private void reset(CharSequence line) {
+        this.line = line;
+
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = -1;
+        }
+    }
+
+    private boolean group(int group, int start, int end) {
+        starts[group] = start;
+        ends[group] = end;
+
+        return true;
+    }
+
+    // .palloc\s+([^,\s]+)\s*,\s*(\w+)\s*,\s*([\d$%]+).*
+    private boolean alloc(CharSequence line, int pos) {
+        int segment = skipSpaces(line, pos);
+
+        if (segment == pos) {
+            return false;
+        }
+
+        int end = segment;
+
+        while (end < line.length() && line.charAt(end) != ',' && !isSpace(line.charAt(end))) {
+            end++;
+        }
+
+        if (end == segment) {
+            return false;
+        }
+
+        group(1, segment, end);
+
+        int variable = comma(line, end);
+
+        if (variable < 0 || (end = skipWord(line, variable)) == variable) {
+            return false;
+        }
+
+        group(2, variable, end);
+
+        int size = comma(line, end);
+
+        if (size < 0) {
+            return false;
+        }
+
+        end = size;
+
+        while (end < line.length() && isSizeChar(line.charAt(end))) {
+            end++;
+        }
+
+        return end > size && anyToEnd(line, end) && group(3, size, end);
+    }
+
+    // .pref\s+(\w+)\s*,\s*(\w+::\w+).*
+    private boolean ref(CharSequence line, int pos) {
+        int source = skipSpaces(line, pos);
+        int end;
+
+        if (source == pos || (end = skipWord(line, source)) == source) {
+            return false;
+        }
+
+        group(1, source, end);
+
+        int target = comma(line, end);
+
+        if (target < 0 || (end = skipWord(line, target)) == target) {
+            return false;
+        }
+
+        if (end + 2 > line.length() || line.charAt(end) != ':' || line.charAt(end + 1) != ':') {
+            return false;
+        }
+
+        int variable = end + 2;
+
+        if ((end = skipWord(line, variable)) == variable) {
+            return false;
+        }
+
+        return anyToEnd(line, end) && group(2, target, end);
+    }
+
+    // .pfree(?:\s+(\w+)(?:\s*,\s*(\w+))*)?(?:[\s;\\*]+.*)?
+    private boolean free(CharSequence line, int pos) {
+        int first = skipSpaces(line, pos);
+        int end;
+
+        if (first > pos && (end = skipWord(line, first)) > first) {
+            if (freeVariables(line, end, -1)) {
+                return group(1, first, end);
+            }
+        }
+
+        return trailing(line, pos);
+    }
+
+    private boolean freeVariables(CharSequence line, int pos, int last) {
+        int variable = comma(line, pos);
+        int end;
+
+        if (variable >= 0 && (end = skipWord(line, variable)) > variable && freeVariables(line, end, variable)) {
+            return true;
+        }
+
+        if (trailing(line, pos)) {
+            if (last >= 0) {
+                group(2, last, pos);
+            }
+
+            return true;
+        }
+
+        return false;
+    }
+
+    // .ftable\s+(\w+)\s*,\s*\{?\s*(\s*,?\s*\w+)*[}\\]?(?:[\s;\\*]+.*)?
+    private boolean table(CharSequence line, int pos) {
+        int name = skipSpaces(line, pos);
+        int end;
+
+        if (name == pos || (end = skipWord(line, name)) == name) {
+            return false;
+        }
+
+        group(1, name, end);
+
+        end = skipSpaces(line, end);
+
+        if (end >= line.length() || line.charAt(end) != ',') {
+            return false;
+        }
+
+        int entries = end + 1;
+
+        if (tableEnd(line, entries)) { // the trailing part may start with the spaces after the comma
+            return true;
+        }
+
+        entries = skipSpaces(line, entries);
+
+        if (entries < line.length() && line.charAt(entries) == '{' && tableEnd(line, ++entries)) {
+            return true;
+        }
+
+        entries = skipSpaces(line, entries);
+
+        if (tableEnd(line, entries)) {
+            return true;
+        }
+
+        boolean comma = false;
+
+        for (int i = entries; i < line.length(); i++) {
+            char c = line.charAt(i);
+
+            if (isWord(c)) {
+                comma = false;
+
+                if (tableEnd(line, i + 1)) {
+                    return true;
+                }
+            } else if (c == ',' && !comma) {
+                comma = true;
+            } else if (!isSpace(c)) {
+                return false;
+            }
+        }
+
+        return false;
+    }
+
+    // [}\\]?(?:[\s;\\*]+.*)?
+    private static boolean tableEnd(CharSequence line, int pos) {
+        if (pos < line.length() && (line.charAt(pos) == '}' || line.charAt(pos) == '\\') && trailing(line, pos + 1)) {
+            return true;
+        }
+
+        return trailing(line, pos);
+    }
+
+    // (?:@?\w*:?\s*)?(jsr|jmp|...)\s+(\w+)(?:[\s;\\*]+.*)?
+    private boolean call(CharSequence line) {
+        int label = line.length() > 0 && line.charAt(0) == '@' ? 1 : 0;
+        int labelEnd = skipWord(line, label);
+        int pos = labelEnd;
+
+        if (pos < line.length() && line.charAt(pos) == ':') {
+            pos++;
+        }
+
+        pos = skipSpaces(line, pos);
+
+        if (jump(line, pos)) { // the label is followed by the instruction
+            return true;
+        }
+
+        // the label ends with the instruction
+        return labelEnd - label >= 3 && labelEnd < line.length() && isSpace(line.charAt(labelEnd)) && jump(line, labelEnd - 3);
+    }
+
+    private boolean jump(CharSequence line, int pos) {
+        if (pos + 3 > line.length() || toLowerCase(line.charAt(pos)) != 'j') {
+            return false;
+        }
+
+        boolean found = false;
+
+        for (String jump : JUMPS) {
+            if (keyword(line, pos, jump)) {
+                found = true;
+                break;
+            }
+        }
+
+        int function = skipSpaces(line, pos + 3);
+        int end;
+
+        if (!found || function == pos + 3 || (end = skipWord(line, function)) == function || !trailing(line, end)) {
+            return false;
+        }
+
+        return group(1, pos, pos + 3) && group(2, function, end);
+    }
+
+    // position of the dot that starts a directive after the optional label, or -1
+    private static int directive(CharSequence line) {
+        int pos = line.length() > 0 && line.charAt(0) == '@' ? 1 : 0;
+        pos = skipWord(line, pos);
+
+        if (pos < line.length() && line.charAt(pos) == ':') {
+            pos++;
+        }
+
+        pos = skipSpaces(line, pos);
+
+        return pos < line.length() && line.charAt(pos) == '.' ? pos : -1;
+    }
+
+    // \s*,\s* then returns the position after it, or -1
+    private static int comma(CharSequence line, int pos) {
+        pos = skipSpaces(line, pos);
+
+        if (pos >= line.length() || line.charAt(pos) != ',') {
+            return -1;
+        }
+
+        return skipSpaces(line, pos + 1);
+    }
+
+    // (?:[\s;\\*]+.*)?
+    private static boolean trailing(CharSequence line, int pos) {
+        if (pos == line.length()) {
+            return true;
+        }
+
+        if (!isSpace(line.charAt(pos)) && !isCommentOrLineCont(line.charAt(pos))) {
+            return false;
+        }
+
+        while (pos < line.length() && (isSpace(line.charAt(pos)) || isCommentOrLineCont(line.charAt(pos)))) {
+            pos++;
+        }
+
+        return anyToEnd(line, pos);
+    }
+
+    // .*
+    private static boolean anyToEnd(CharSequence line, int pos) {
+        for (int i = pos; i < line.length(); i++) {
+            char c = line.charAt(i);
+
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean keyword(CharSequence line, int pos, String keyword) {
+        if (pos + keyword.length() > line.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < keyword.length(); i++) {
+            if (toLowerCase(line.charAt(pos + i)) != keyword.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int skipSpaces(CharSequence line, int pos) {
+        while (pos < line.length() && isSpace(line.charAt(pos))) {
+            pos++;
+        }
+
+        return pos;
+    }
+
+    private static int skipWord(CharSequence line, int pos) {
+        while (pos < line.length() && isWord(line.charAt(pos))) {
+            pos++;
+        }
+
+        return pos;
+    }
+
+    private static char toLowerCase(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isWord(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    private static boolean isSizeChar(char c) {
+        return (c >= '0' && c <= '9') || c == '$' || c == '%';
+    }
+
+    private static boolean isCommentOrLineCont(char c) {
+        return c == ';' || c == '\\' || c == '*';
+    }
+}
@@ -0,0 +1,20 @@
+package com.parisoft.pa65.parser;
+
+abstract class Lexer {
+
+    static final int NONE = 0;
+    static final int ALLOC = 1; // group 1 = segment, group 2 = variable, group 3 = size
+    static final int REF = 2; // group 1 = source variable, group 2 = target variable
+    static final int CALL = 3; // group 1 = instruction, group 2 = function
+    static final int FREE = 4; // group 1 = first variable, group 2 = last variable
+    static final int TABLE = 5; // group 1 = table name
+    static final int FUNC_CLOSE = 6;
+
+    abstract boolean isFuncOpen(CharSequence line); // group 1 = function name
+
+    abstract boolean isTable(CharSequence line);
+
+    abstract int next(CharSequence line); // tries, in order: ALLOC, REF, CALL, FREE, TABLE and FUNC_CLOSE
+
+    abstract String group(int group); // null if the group is not part of the last match
+}
@@ -0,0 +1,280 @@
+package com.parisoft.pa65.parser;
+
+import com.parisoft.pa65.pojo.Alloc;
+import com.parisoft.pa65.pojo.Call;
+import com.parisoft.pa65.pojo.Free;
+import com.parisoft.pa65.pojo.Function;
+import com.parisoft.pa65.pojo.Ref;
+import com.parisoft.pa65.pojo.SourceFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+// Parsed files stored in a directory, named after the hash of the parser version and the file content.
+// Every string is written once to a table at the beginning of the entry and referred to by its index after that.
+public class ParseCache {
+
+    private static final int MAGIC = 0x50413635; // PA65
+    private static final byte ALLOC = 'A';
+    private static final byte REF = 'R';
+    private static final byte CALL = 'C';
+    private static final byte FREE = 'F';
+
+    private final Path dir;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    public ParseCache(File dir) throws IOException {
+        this.dir = Files.createDirectories(dir.toPath());
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    String keyOf(File file) throws IOException {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        digest.update(Integer.toString(SourceParser.VERSION).getBytes());
+        digest.update((byte) 0);
+
+        try (InputStream in = Files.newInputStream(file.toPath())) { // not mapped, so the file is not kept locked on Windows
+            byte[] buffer = new byte[8192];
+
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                digest.update(buffer, 0, n);
+            }
+        }
+
+        StringBuilder key = new StringBuilder();
+
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+
+        return key.toString();
+    }
+
+    SourceFile load(String key, File file) {
+        Path entry = dir.resolve(key);
+
+        if (Files.isRegularFile(entry)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry)))) {
+                SourceFile source = read(in, file);
+                hits.incrementAndGet();
+
+                return source;
+            } catch (IOException | RuntimeException e) {
+                // a damaged entry is parsed again
+            }
+        }
+
+        misses.incrementAndGet();
+
+        return null;
+    }
+
+    void store(String key, SourceFile source) throws IOException {
+        Path tmp = Files.createTempFile(dir, key, ".tmp");
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                write(out, source);
+            }
+
+            Files.move(tmp, dir.resolve(key), REPLACE_EXISTING, ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            // a plain move could leave a partly written entry to another run, so the file is parsed again next time
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void write(DataOutputStream out, SourceFile source) throws IOException {
+        Map<String, Integer> strings = new LinkedHashMap<>();
+
+        for (Function function : source.getFunctions()) {
+            strings.putIfAbsent(function.getName(), strings.size());
+
+            for (Object stmt : function.getStmts()) {
+                if (stmt instanceof Alloc) {
+                    strings.putIfAbsent(((Alloc) stmt).getSegment(), strings.size());
+                    strings.putIfAbsent(((Alloc) stmt).getVariable(), strings.size());
+                } else if (stmt instanceof Ref) {
+                    strings.putIfAbsent(((Ref) stmt).getSourceVar(), strings.size());
+                    strings.putIfAbsent(((Ref) stmt).getTargetVar(), strings.size());
+                } else if (stmt instanceof Call) {
+                    strings.putIfAbsent(((Call) stmt).getFunction(), strings.size());
+                } else if (stmt instanceof Free) {
+                    ((Free) stmt).getVariables().forEach(variable -> strings.putIfAbsent(variable, strings.size()));
+                }
+            }
+        }
+
+        source.getTables().forEach((name, entries) -> {
+            strings.putIfAbsent(name, strings.size());
+            entries.forEach(entry -> strings.putIfAbsent(entry, strings.size()));
+        });
+
+        out.writeInt(MAGIC);
+        out.writeInt(SourceParser.VERSION);
+        writeSize(out, strings.size());
+
+        for (String string : strings.keySet()) {
+            out.writeUTF(string);
+        }
+
+        writeSize(out, source.getFunctions().size());
+
+        for (Function function : source.getFunctions()) {
+            writeSize(out, strings.get(function.getName()));
+            writeSize(out, function.getStmts().size());
+
+            for (Object stmt : function.getStmts()) {
+                if (stmt instanceof Alloc) {
+                    out.writeByte(ALLOC);
+                    writeSize(out, strings.get(((Alloc) stmt).getSegment()));
+                    writeSize(out, strings.get(((Alloc) stmt).getVariable()));
+                    writeSize(out, ((Alloc) stmt).getSize());
+                } else if (stmt instanceof Ref) {
+                    out.writeByte(REF);
+                    writeSize(out, strings.get(((Ref) stmt).getSourceVar()));
+                    writeSize(out, strings.get(((Ref) stmt).getTargetVar()));
+                } else if (stmt instanceof Call) {
+                    out.writeByte(CALL);
+                    writeSize(out, strings.get(((Call) stmt).getFunction()));
+                    out.writeBoolean(((Call) stmt).isJump());
+                } else if (stmt instanceof Free) {
+                    out.writeByte(FREE);
+                    writeSize(out, ((Free) stmt).getVariables().size());
+
+                    for (String variable : ((Free) stmt).getVariables()) {
+                        writeSize(out, strings.get(variable));
+                    }
+                }
+            }
+        }
+
+        writeSize(out, source.getTables().size());
+
+        for (Map.Entry<String, Set<String>> table : source.getTables().entrySet()) {
+            writeSize(out, strings.get(table.getKey()));
+            writeSize(out, table.getValue().size());
+
+            for (String entry : table.getValue()) {
+                writeSize(out, strings.get(entry));
+            }
+        }
+
+        writeSize(out, source.getLines());
+    }
+
+    private static SourceFile read(DataInputStream in, File file) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != SourceParser.VERSION) {
+            throw new IOException("Not a cache entry of this version");
+        }
+
+        List<String> strings = new ArrayList<>();
+
+        for (int i = readSize(in); i > 0; i--) {
+            strings.add(in.readUTF());
+        }
+
+        SourceFile source = new SourceFile(file);
+
+        for (int i = readSize(in); i > 0; i--) {
+            Function function = new Function(strings.get(readSize(in)));
+
+            for (int j = readSize(in); j > 0; j--) {
+                byte type = in.readByte();
+
+                if (type == ALLOC) {
+                    function.getStmts().add(new Alloc(strings.get(readSize(in)), strings.get(readSize(in)), readSize(in)));
+                } else if (type == REF) {
+                    function.getStmts().add(new Ref(strings.get(readSize(in)), strings.get(readSize(in))));
+                } else if (type == CALL) {
+                    function.getStmts().add(new Call(strings.get(readSize(in)), in.readBoolean()));
+                } else if (type == FREE) {
+                    Free free = new Free();
+
+                    for (int k = readSize(in); k > 0; k--) {
+                        free.getVariables().add(strings.get(readSize(in)));
+                    }
+
+                    function.getStmts().add(free);
+                } else {
+                    throw new IOException("Unknown statement type: " + type);
+                }
+            }
+
+            source.getFunctions().add(function);
+        }
+
+        for (int i = readSize(in); i > 0; i--) {
+            Set<String> entries = source.getTables().computeIfAbsent(strings.get(readSize(in)), s -> new LinkedHashSet<>());
+
+            for (int j = readSize(in); j > 0; j--) {
+                entries.add(strings.get(readSize(in)));
+            }
+        }
+
+        source.setLines(readSize(in));
+
+        return source;
+    }
+
+    // unsigned LEB128, so small indexes and sizes take a single byte
+    private static void writeSize(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        out.writeByte(value);
+    }
+
+    private static int readSize(DataInputStream in) throws IOException {
+        int value = 0;
+
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed size");
+    }
+}
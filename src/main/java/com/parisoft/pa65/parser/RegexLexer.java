@@ -0,0 +1,53 @@
+package com.parisoft.pa65.parser;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.util.regex.Pattern.CASE_INSENSITIVE;
+
+class RegexLexer extends Lexer {
+
+    private static final Pattern FUNC_OPEN_PATTERN = Pattern.compile("\\.func\\s+([^;\\\\*]+).*", CASE_INSENSITIVE);
+    private static final Pattern FUNC_CLOSE_PATTERN = Pattern.compile("\\.endfunc([\\s;\\\\*]+.*)?", CASE_INSENSITIVE);
+    private static final Pattern ALLOC_PATTERN = Pattern.compile("(?:@?\\w*:?\\s*)?\\.palloc\\s+([^,\\s]+)\\s*,\\s*(\\w+)\\s*,\\s*([\\d$%]+).*", CASE_INSENSITIVE);
+    private static final Pattern REF_PATTERN = Pattern.compile("(?:@?\\w*:?\\s*)?\\.pref\\s+(\\w+)\\s*,\\s*(\\w+::\\w+).*", CASE_INSENSITIVE);
+    private static final Pattern CALL_PATTERN = Pattern.compile("(?:@?\\w*:?\\s*)?(jsr|jmp|jsl|jml|jeq|jne|jmi|jpl|jcs|jcc|jvs|jvc|jtx|jty)\\s+(\\w+)(?:[\\s;\\\\*]+.*)?", CASE_INSENSITIVE);
+    private static final Pattern TABLE_PATTERN = Pattern.compile("(?:@?\\w*:?\\s*)?\\.ftable\\s+(\\w+)\\s*,\\s*\\{?\\s*(\\s*,?\\s*\\w+)*[}\\\\]?(?:[\\s;\\\\*]+.*)?", CASE_INSENSITIVE);
+    private static final Pattern FREE_PATTERN = Pattern.compile("(?:@?\\w*:?\\s*)?\\.pfree(?:\\s+(\\w+)(?:\\s*,\\s*(\\w+))*)?(?:[\\s;\\\\*]+.*)?", CASE_INSENSITIVE);
+
+    private Matcher matcher;
+
+    @Override
+    boolean isFuncOpen(CharSequence line) {
+        return (matcher = FUNC_OPEN_PATTERN.matcher(line)).matches();
+    }
+
+    @Override
+    boolean isTable(CharSequence line) {
+        return (matcher = TABLE_PATTERN.matcher(line)).matches();
+    }
+
+    @Override
+    int next(CharSequence line) {
+        if ((matcher = ALLOC_PATTERN.matcher(line)).matches()) {
+            return ALLOC;
+        } else if ((matcher = REF_PATTERN.matcher(line)).matches()) {
+            return REF;
+        } else if ((matcher = CALL_PATTERN.matcher(line)).matches()) {
+            return CALL;
+        } else if ((matcher = FREE_PATTERN.matcher(line)).matches()) {
+            return FREE;
+        } else if ((matcher = TABLE_PATTERN.matcher(line)).matches()) {
+            return TABLE;
+        } else if ((matcher = FUNC_CLOSE_PATTERN.matcher(line)).matches()) {
+            return FUNC_CLOSE;
+        }
+
+        return NONE;
+    }
+
+    @Override
+    String group(int group) {
+        return matcher.group(group);
+    }
+}
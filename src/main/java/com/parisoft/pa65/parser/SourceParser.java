@@ -0,0 +1,144 @@
+package com.parisoft.pa65.parser;
+
+import com.parisoft.pa65.event.Events;
+import com.parisoft.pa65.event.ParseEvent;
+import com.parisoft.pa65.pojo.Alloc;
+import com.parisoft.pa65.pojo.Call;
+import com.parisoft.pa65.pojo.Free;
+import com.parisoft.pa65.pojo.Function;
+import com.parisoft.pa65.pojo.Ref;
+import com.parisoft.pa65.pojo.SourceFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static com.parisoft.pa65.util.VariableUtils.absNameOf;
+
+public class SourceParser {
+
+    static final int VERSION = 2; // increment when the parsed statements change, so cached files are parsed again
+
+    private static final Pattern COMMA_PATTERN = Pattern.compile(",");
+
+    private final boolean regex;
+    private final ParseCache cache;
+
+    public SourceParser() {
+        this(false, null);
+    }
+
+    public SourceParser(boolean regex, ParseCache cache) {
+        this.regex = regex;
+        this.cache = cache;
+    }
+
+    public SourceFile parse(File file) throws IOException { // stateless, so files can be parsed concurrently
+        ParseEvent event = Events.newParseEvent();
+
+        if (event != null) {
+            event.begin();
+        }
+
+        String key = cache != null ? cache.keyOf(file) : null;
+        SourceFile source = key != null ? cache.load(key, file) : null;
+        boolean cached = source != null;
+
+        if (source == null) {
+            source = read(file);
+
+            if (key != null) {
+                cache.store(key, source);
+            }
+        }
+
+        if (event != null && event.shouldCommit()) {
+            event.commit(file.getPath(), source.getLines(), source.getFunctions().size(), cached);
+        }
+
+        return source;
+    }
+
+    private SourceFile read(File file) throws IOException {
+        SourceFile source = new SourceFile(file);
+        Lexer lexer = regex ? new RegexLexer() : new DefaultLexer();
+        Function function = null;
+
+        try (SourceReader reader = new SourceReader(file)) {
+            CharSequence line;
+
+            while ((line = reader.readLine()) != null) {
+                if (function == null) {
+                    if (lexer.isFuncOpen(line)) {
+                        function = new Function(lexer.group(1));
+                        source.getFunctions().add(function);
+                    } else if (!lexer.isTable(line)) {
+                        continue;
+                    }
+                }
+
+                int kind = lexer.next(line);
+
+                if (kind == Lexer.ALLOC) {
+                    function.getStmts().add(new Alloc(lexer.group(1), absNameOf(function, lexer.group(2)), Integer.valueOf(lexer.group(3))));
+                } else if (kind == Lexer.REF) {
+                    function.getStmts().add(new Ref(absNameOf(function, lexer.group(1)), lexer.group(2)));
+                } else if (kind == Lexer.CALL) {
+                    function.getStmts().add(new Call(lexer.group(2), !lexer.group(1).equalsIgnoreCase("jsr")));
+                } else if (kind == Lexer.FREE) {
+                    Free free = new Free();
+                    String var1 = lexer.group(1);
+                    String var2 = lexer.group(2);
+
+                    if (var1 != null) {
+                        free.getVariables().add(absNameOf(function, var1));
+                    }
+
+                    if (var2 != null) {
+                        free.getVariables().add(absNameOf(function, var2));
+                    }
+
+                    String[] tokens = COMMA_PATTERN.split(line);
+
+                    for (int t = 1; t < tokens.length - 1; t++) {
+                        free.getVariables().add(absNameOf(function, tokens[t].trim()));
+                    }
+
+                    function.getStmts().add(free);
+                } else if (kind == Lexer.TABLE) {
+                    String tableName = lexer.group(1);
+                    Set<String> entries = source.getTables().computeIfAbsent(tableName, s -> new LinkedHashSet<>());
+
+                    String subline = null;
+
+                    do {
+                        if (subline == null) {
+                            String text = line.toString();
+                            subline = text.substring(text.indexOf(tableName) + tableName.length());
+                        } else if ((line = reader.readLine()) != null) { // continues on the next line
+                            subline = line.toString();
+                        } else {
+                            throw new IOException("Unterminated .ftable " + tableName + " in " + file);
+                        }
+
+                        for (String token : COMMA_PATTERN.split(subline)) {
+                            String entry = token.trim().replaceAll("\\s*-\\s*1", "").replaceAll("\\W", "");
+
+                            if (entry.length() > 0) {
+                                entries.add(entry);
+                            }
+                        }
+                    } while (!subline.contains("}"));
+                } else if (kind == Lexer.FUNC_CLOSE) {
+                    function = null;
+                }
+            }
+
+            source.setLines(reader.getLineCount());
+        }
+
+        return source;
+    }
+}
@@ -0,0 +1,165 @@
+package com.parisoft.pa65.parser;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+
+// Reads the trimmed lines of a file without creating a String per line.
+// The returned line is a view over a reused buffer and is only valid until the next call to readLine().
+// The file is read through a small buffer rather than mapped, as a mapped file stays locked on Windows until the
+// mapping is garbage collected and could not be saved while --watch runs.
+class SourceReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final FileChannel channel;
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharsetDecoder decoder = UTF_8.newDecoder();
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    private final Line line = new Line();
+    private boolean skipLineFeed;
+    private boolean endOfInput;
+    private boolean flushed;
+    private int lineCount;
+
+    SourceReader(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), READ);
+        bytes.flip();
+        chars.flip();
+    }
+
+    // same line terminators as BufferedReader.readLine(): \n, \r or \r\n
+    CharSequence readLine() throws IOException {
+        line.length = 0;
+
+        while (chars.hasRemaining() || fill()) {
+            char c = chars.get();
+
+            if (skipLineFeed) {
+                skipLineFeed = false;
+
+                if (c == '\n') {
+                    continue;
+                }
+            }
+
+            if (c == '\n') {
+                lineCount++;
+                return line.trim();
+            }
+
+            if (c == '\r') {
+                skipLineFeed = true;
+                lineCount++;
+                return line.trim();
+            }
+
+            line.append(c);
+        }
+
+        if (line.length > 0) {
+            lineCount++;
+            return line.trim();
+        }
+
+        return null;
+    }
+
+    // lines read so far
+    int getLineCount() {
+        return lineCount;
+    }
+
+    private boolean fill() throws IOException {
+        chars.clear();
+
+        while (chars.position() == 0 && !flushed) {
+            if (!endOfInput) { // after the bytes of a char that is not complete yet
+                bytes.compact();
+                endOfInput = channel.read(bytes) < 0;
+                bytes.flip();
+            }
+
+            CoderResult result = decoder.decode(bytes, chars, endOfInput);
+
+            if (result.isUnderflow() && endOfInput) { // all bytes were decoded
+                result = decoder.flush(chars);
+                flushed = result.isUnderflow();
+            }
+
+            if (result.isError()) {
+                result.throwException();
+            }
+        }
+
+        chars.flip();
+
+        return chars.hasRemaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static class Line implements CharSequence {
+
+        private char[] value = new char[256];
+        private int length;
+        private int start;
+        private int end;
+
+        void append(char c) {
+            if (length == value.length) {
+                value = Arrays.copyOf(value, length * 2);
+            }
+
+            value[length++] = c;
+        }
+
+        // same as String.trim()
+        Line trim() {
+            start = 0;
+            end = length;
+
+            while (start < end && value[start] <= ' ') {
+                start++;
+            }
+
+            while (end > start && value[end - 1] <= ' ') {
+                end--;
+            }
+
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return value[start + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(value, this.start + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(value, start, end - start);
+        }
+    }
+}
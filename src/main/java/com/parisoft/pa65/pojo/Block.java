@@ -81,11 +81,13 @@ public class Block {
     }
 
     public int getOffsetPlusSize() {
-        try {
-            return Math.addExact(offset,size);
-        } catch (ArithmeticException e) {
+        long offsetPlusSize = (long) offset + size;
+
+        if (offsetPlusSize > Integer.MAX_VALUE || offsetPlusSize < Integer.MIN_VALUE) { // overflow
             return Integer.MAX_VALUE;
         }
+
+        return (int) offsetPlusSize;
     }
 
     public boolean overlaps(Block that) {
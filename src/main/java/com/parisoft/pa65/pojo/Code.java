@@ -0,0 +1,101 @@
+package com.parisoft.pa65.pojo;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+// Statements of a function as two parallel arrays: the opcode of each statement and its argument.
+// Allocs, refs and frees are indexes in the tables of the program and calls are ids in the call graph.
+public class Code {
+
+    public static final byte ALLOC = 0; // argument: index of the alloc
+    public static final byte REF = 1; // argument: index of the ref
+    public static final byte CALL = 2; // argument: id of the called function
+    public static final byte FREE = 3; // argument: index of the free, -1 frees all it can
+
+    private byte[] ops = new byte[8];
+    private int[] args = new int[8];
+    private int size;
+
+    public void add(byte op, int arg) {
+        if (size == ops.length) {
+            ops = Arrays.copyOf(ops, size * 2);
+            args = Arrays.copyOf(args, size * 2);
+        }
+
+        ops[size] = op;
+        args[size] = arg;
+        size++;
+    }
+
+    // drops the room left for statements that did not come
+    public void trim() {
+        ops = Arrays.copyOf(ops, size);
+        args = Arrays.copyOf(args, size);
+    }
+
+    // shuffles each run of calls with nothing between them, which can be walked in any order
+    public void shuffleCalls(Random random) {
+        for (int start = 0; start < size; start++) {
+            if (ops[start] != CALL) {
+                continue;
+            }
+
+            int end = start;
+
+            while (end + 1 < size && ops[end + 1] == CALL) {
+                end++;
+            }
+
+            for (int i = end; i > start; i--) {
+                int j = start + random.nextInt(i - start + 1);
+                int arg = args[i];
+                args[i] = args[j];
+                args[j] = arg;
+            }
+
+            start = end;
+        }
+    }
+
+    // sorts the alloc indexes of each run of allocs with nothing between them, stably, as they can be placed in any order
+    public void sortAllocs(Comparator<Integer> order) {
+        for (int start = 0; start < size; start++) {
+            if (ops[start] != ALLOC) {
+                continue;
+            }
+
+            int end = start;
+
+            while (end + 1 < size && ops[end + 1] == ALLOC) {
+                end++;
+            }
+
+            Integer[] run = new Integer[end - start + 1];
+
+            for (int i = 0; i < run.length; i++) {
+                run[i] = args[start + i];
+            }
+
+            Arrays.sort(run, order);
+
+            for (int i = 0; i < run.length; i++) {
+                args[start + i] = run[i];
+            }
+
+            start = end;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public byte opAt(int index) {
+        return ops[index];
+    }
+
+    public int argAt(int index) {
+        return args[index];
+    }
+}
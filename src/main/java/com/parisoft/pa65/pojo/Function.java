@@ -42,4 +42,9 @@ public class Function {
 
         return Objects.equals(this.name, ((Function) obj).name);
     }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(name);
+    }
 }
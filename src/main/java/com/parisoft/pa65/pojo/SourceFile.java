@@ -0,0 +1,50 @@
+package com.parisoft.pa65.pojo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class SourceFile {
+
+    private File file;
+    private List<Function> functions = new ArrayList<>(); // in declaration order
+    private Map<String, Set<String>> tables = new LinkedHashMap<>(); // entries in declaration order
+    private int lines;
+
+    public SourceFile(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public List<Function> getFunctions() {
+        return functions;
+    }
+
+    public Map<String, Set<String>> getTables() {
+        return tables;
+    }
+
+    public int getLines() {
+        return lines;
+    }
+
+    public void setLines(int lines) {
+        this.lines = lines;
+    }
+
+    @Override
+    public String toString() {
+        return "SourceFile{" +
+                "file=" + file +
+                ", functions=" + functions +
+                ", tables=" + tables +
+                ", lines=" + lines +
+                '}';
+    }
+}
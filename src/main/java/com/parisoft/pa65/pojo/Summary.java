@@ -0,0 +1,70 @@
+package com.parisoft.pa65.pojo;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+// What a function and everything it calls allocates. When none of it can touch the blocks of the callers, walking the
+// function again after two walks that left nothing behind is the same as replaying these allocs.
+public class Summary {
+
+    private final BitSet variables = new BitSet(); // allocated by the function and its callees, by symbol id
+    private final BitSet functions = new BitSet(); // the function and its callees, by call graph id
+    private final BitSet owners = new BitSet(); // functions on whose place on the stack freeing the variables depends
+    private final List<Alloc> allocs = new ArrayList<>();
+    private boolean replayable = true;
+    private int cleanWalks;
+    private int restarts;
+    private int repairs;
+
+    public BitSet getVariables() {
+        return variables;
+    }
+
+    public BitSet getFunctions() {
+        return functions;
+    }
+
+    public BitSet getOwners() {
+        return owners;
+    }
+
+    public List<Alloc> getAllocs() {
+        return allocs;
+    }
+
+    public boolean isReplayable() {
+        return replayable;
+    }
+
+    public void setReplayable(boolean replayable) {
+        this.replayable = replayable;
+    }
+
+    // counts the walks in a row that left nothing behind with the final heap as it is
+    public void walked(boolean clean, int restarts, int repairs) {
+        if (!clean) {
+            cleanWalks = 0;
+        } else if (restarts == this.restarts && repairs == this.repairs) {
+            cleanWalks++;
+        } else {
+            cleanWalks = 1;
+        }
+
+        this.restarts = restarts;
+        this.repairs = repairs;
+    }
+
+    public boolean canReplay(int restarts, int repairs) {
+        return cleanWalks >= 2 && restarts == this.restarts && repairs == this.repairs;
+    }
+
+    @Override
+    public String toString() {
+        return "Summary{" +
+                "allocs=" + allocs +
+                ", replayable=" + replayable +
+                ", cleanWalks=" + cleanWalks +
+                '}';
+    }
+}
@@ -0,0 +1,188 @@
+package com.parisoft.pa65.util;
+
+import com.parisoft.pa65.pojo.Call;
+import com.parisoft.pa65.pojo.Function;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Calls between the functions, indexed by the order the functions were declared.
+// The strongly connected components are computed once, so only functions in a cycle are ever checked for recursion.
+public class CallGraph {
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final String[] names;
+    private final int[][] callees; // in statement order, with repetitions
+    private final int[][] callers;
+    private final int[] components;
+    private final boolean[] recursive;
+
+    public CallGraph(Collection<Function> functions) {
+        names = new String[functions.size()];
+        callees = new int[names.length][];
+        callers = new int[names.length][];
+
+        for (Function function : functions) {
+            ids.put(function.getName(), ids.size());
+            names[ids.size() - 1] = function.getName();
+        }
+
+        int[] callerCount = new int[names.length];
+
+        for (Function function : functions) {
+            int id = ids.get(function.getName());
+
+            callees[id] = function.getStmts().stream()
+                    .filter(o -> o instanceof Call && ((Call) o).isValid() && ids.containsKey(((Call) o).getFunction()))
+                    .mapToInt(o -> ids.get(((Call) o).getFunction()))
+                    .toArray();
+
+            for (int callee : callees[id]) {
+                callerCount[callee]++;
+            }
+        }
+
+        for (int id = 0; id < names.length; id++) {
+            callers[id] = new int[callerCount[id]];
+        }
+
+        for (int id = 0; id < names.length; id++) {
+            for (int callee : callees[id]) {
+                callers[callee][--callerCount[callee]] = id;
+            }
+        }
+
+        components = new int[names.length];
+        recursive = new boolean[names.length];
+        findComponents();
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public int idOf(String function) {
+        Integer id = ids.get(function);
+        return id != null ? id : -1;
+    }
+
+    public String nameOf(int id) {
+        return names[id];
+    }
+
+    public int[] getCallees(int id) {
+        return callees[id];
+    }
+
+    public int[] getCallers(int id) {
+        return callers[id];
+    }
+
+    public int componentOf(int id) {
+        return components[id];
+    }
+
+    // true if the function can call itself again, directly or through others
+    public boolean isRecursive(int id) {
+        return recursive[id];
+    }
+
+    // functions never called by others, in declaration order
+    public List<String> getEntryPoints() {
+        List<String> entryPoints = new ArrayList<>();
+
+        for (int id = 0; id < names.length; id++) {
+            if (callers[id].length == 0) {
+                entryPoints.add(names[id]);
+            }
+        }
+
+        return entryPoints;
+    }
+
+    // Tarjan's algorithm without recursion, call chains can be deeper than the java stack
+    private void findComponents() {
+        int[] index = new int[names.length];
+        int[] lowLink = new int[names.length];
+        int[] next = new int[names.length]; // next callee to visit of each function on the path
+        boolean[] onStack = new boolean[names.length];
+        int[] stack = new int[names.length];
+        int[] path = new int[names.length];
+        int stackSize = 0;
+        int counter = 0;
+        int component = 0;
+
+        Arrays.fill(index, -1);
+
+        for (int root = 0; root < names.length; root++) {
+            if (index[root] >= 0) {
+                continue;
+            }
+
+            int pathSize = 0;
+            path[pathSize++] = root;
+            index[root] = lowLink[root] = counter++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+
+            while (pathSize > 0) {
+                int id = path[pathSize - 1];
+
+                if (next[id] < callees[id].length) {
+                    int callee = callees[id][next[id]++];
+
+                    if (index[callee] < 0) {
+                        path[pathSize++] = callee;
+                        index[callee] = lowLink[callee] = counter++;
+                        stack[stackSize++] = callee;
+                        onStack[callee] = true;
+                    } else if (onStack[callee]) {
+                        lowLink[id] = Math.min(lowLink[id], index[callee]);
+                    }
+
+                    continue;
+                }
+
+                pathSize--;
+
+                if (pathSize > 0) {
+                    int caller = path[pathSize - 1];
+                    lowLink[caller] = Math.min(lowLink[caller], lowLink[id]);
+                }
+
+                if (lowLink[id] == index[id]) {
+                    int member;
+                    int first = stackSize;
+
+                    do {
+                        member = stack[--stackSize];
+                        onStack[member] = false;
+                        components[member] = component;
+                    } while (member != id);
+
+                    boolean cycle = first - stackSize > 1;
+
+                    for (int i = stackSize; i < first; i++) {
+                        recursive[stack[i]] = cycle || callsItself(stack[i]);
+                    }
+
+                    component++;
+                }
+            }
+        }
+    }
+
+    private boolean callsItself(int id) {
+        for (int callee : callees[id]) {
+            if (callee == id) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
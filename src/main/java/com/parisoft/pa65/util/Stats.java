@@ -0,0 +1,115 @@
+package com.parisoft.pa65.util;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static java.lang.System.lineSeparator;
+
+// Time of each phase and counters of a run, in sections, printed with --stats and written as JSON with --stats-json
+public class Stats {
+
+    public static final String PHASES = "phases";
+
+    private final Map<String, Map<String, Object>> sections = new LinkedHashMap<>(); // values are numbers, strings or maps of numbers
+
+    public <T> T time(String phase, Phase<T> task) throws Exception {
+        long start = System.nanoTime();
+
+        try {
+            return task.run();
+        } finally {
+            double millis = (System.nanoTime() - start) / 1e6;
+            sections.computeIfAbsent(PHASES, s -> new LinkedHashMap<>()).merge(phase, millis, (a, b) -> (Double) a + (Double) b);
+        }
+    }
+
+    public void put(String section, String key, Object value) {
+        sections.computeIfAbsent(section, s -> new LinkedHashMap<>()).put(key, value);
+    }
+
+    public Map<String, Map<String, Object>> getSections() {
+        return sections;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+
+        sections.forEach((section, values) -> {
+            builder.append(section).append(':').append(lineSeparator());
+            values.forEach((key, value) -> {
+                builder.append("  ").append(key).append(": ");
+
+                if (value instanceof Map) {
+                    StringBuilder inner = new StringBuilder();
+                    ((Map<?, ?>) value).forEach((innerKey, innerValue) -> inner.append(inner.length() > 0 ? ", " : "").append(innerKey).append(' ').append(format(innerValue)));
+                    builder.append(inner);
+                } else {
+                    builder.append(format(value));
+                }
+
+                builder.append(section.equals(PHASES) ? " ms" : "").append(lineSeparator());
+            });
+        });
+
+        return builder.toString();
+    }
+
+    public String toJson() {
+        StringBuilder builder = new StringBuilder();
+        appendJson(builder, sections, "");
+        return builder.append(lineSeparator()).toString();
+    }
+
+    private static void appendJson(StringBuilder builder, Object value, String indent) {
+        if (value instanceof String) {
+            appendString(builder, (String) value);
+            return;
+        }
+
+        if (!(value instanceof Map)) {
+            builder.append(format(value));
+            return;
+        }
+
+        String inner = indent + "  ";
+        builder.append('{');
+        boolean first = true;
+
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+            builder.append(first ? "" : ",").append(lineSeparator()).append(inner);
+            appendString(builder, entry.getKey().toString());
+            builder.append(": ");
+            appendJson(builder, entry.getValue(), inner);
+            first = false;
+        }
+
+        builder.append(first ? "" : lineSeparator() + indent).append('}');
+    }
+
+    private static void appendString(StringBuilder builder, String string) {
+        builder.append('"');
+
+        for (char c : string.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < ' ') {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+
+        builder.append('"');
+    }
+
+    private static String format(Object value) {
+        return value instanceof Double ? String.format(Locale.ROOT, "%.3f", (Double) value) : String.valueOf(value);
+    }
+
+    public interface Phase<T> {
+
+        T run() throws Exception;
+    }
+}
@@ -0,0 +1,179 @@
+package com.parisoft.pa65;
+
+import com.parisoft.pa65.heap.AllocationStrategy;
+import com.parisoft.pa65.parser.SourceParser;
+import com.parisoft.pa65.pojo.Alloc;
+import com.parisoft.pa65.pojo.Block;
+import com.parisoft.pa65.pojo.Call;
+import com.parisoft.pa65.pojo.Free;
+import com.parisoft.pa65.pojo.Function;
+import com.parisoft.pa65.pojo.Ref;
+import com.parisoft.pa65.pojo.SourceFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static com.parisoft.pa65.util.VariableUtils.absNameOf;
+import static org.junit.Assert.assertEquals;
+
+// Random programs through every strategy: a variable must never share bytes with a variable allocated while it is
+// live, or with a variable of a function called while it is live.
+public class LayoutTest {
+
+    private static final List<String> SEGMENTS = Arrays.asList(".zeropage", ".bss", "\"RAM1\"");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keepsLiveVariablesApart() throws IOException {
+        for (long seed = 0; seed < 30; seed++) {
+            File file = generate(new Random(seed));
+
+            for (String strategy : AllocationStrategy.NAMES) {
+                List<SourceFile> sources = PA65.parse(Collections.singletonList(file), 1, new SourceParser());
+                PA65 pa65 = new PA65(sources);
+                pa65.setStrategy(AllocationStrategy.of(strategy));
+                pa65.createHeap();
+
+                assertEquals("seed " + seed + ", " + strategy, Collections.emptyList(), overlaps(sources, pa65));
+            }
+        }
+    }
+
+    // functions in layers, each calling functions of the layers below it and referring to some of their variables
+    private File generate(Random random) throws IOException {
+        File file = folder.newFile();
+        int functions = 40;
+        int layers = 6;
+
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath()))) {
+            for (int function = 0; function < functions; function++) {
+                int layer = function % layers;
+                int allocs = random.nextInt(4) + 1;
+                List<Integer> callees = new ArrayList<>();
+
+                for (int i = layer < layers - 1 ? random.nextInt(4) : 0; i > 0; i--) {
+                    int below = layer + 1 + random.nextInt(layers - 1 - layer);
+                    callees.add(below + layers * random.nextInt((functions - 1 - below) / layers + 1));
+                }
+
+                out.println(".func f" + function);
+
+                for (int i = 0; i < allocs; i++) {
+                    out.println(".palloc " + SEGMENTS.get(random.nextInt(SEGMENTS.size())) + ", v" + i + ", " + (random.nextInt(6) + 1));
+                }
+
+                for (int i = 0; i < callees.size(); i++) {
+                    if (random.nextInt(3) == 0) {
+                        out.println(".pref r" + i + ", f" + callees.get(i) + "::v0");
+                    }
+                }
+
+                for (int i = 0; i < callees.size(); i++) {
+                    if (i == callees.size() - 1 && random.nextInt(4) == 0) {
+                        out.println("\tjmp f" + callees.get(i));
+                    } else {
+                        out.println("\tjsr f" + callees.get(i));
+                    }
+
+                    if (random.nextInt(3) == 0) {
+                        out.println(".pfree v" + random.nextInt(allocs));
+                    }
+                }
+
+                out.println("\trts");
+                out.println(".endfunc");
+                out.println();
+            }
+        }
+
+        return file;
+    }
+
+    private static List<String> overlaps(List<SourceFile> sources, PA65 pa65) {
+        Map<String, Function> functions = new LinkedHashMap<>();
+        Map<String, Set<String>> allocs = new HashMap<>();
+        Map<String, Block> blocks = new HashMap<>();
+        Set<List<String>> pairs = new LinkedHashSet<>();
+
+        sources.forEach(source -> source.getFunctions().forEach(function -> functions.put(function.getName(), function)));
+        functions.values().forEach(function -> function.getStmts()
+                .stream()
+                .filter(stmt -> stmt instanceof Alloc)
+                .forEach(stmt -> allocs.computeIfAbsent(function.getName(), name -> new LinkedHashSet<>()).add(absNameOf(function, ((Alloc) stmt).getVariable()))));
+        pa65.getHeap().getBlocksBySegment().values().forEach(segment -> segment.forEach(block -> blocks.put(block.getVariable(), block)));
+
+        for (Function function : functions.values()) {
+            Set<String> live = new LinkedHashSet<>();
+
+            for (Object stmt : function.getStmts()) {
+                if (stmt instanceof Alloc) {
+                    String variable = absNameOf(function, ((Alloc) stmt).getVariable());
+                    live.forEach(other -> pairs.add(pairOf(other, variable)));
+                    live.add(variable);
+                } else if (stmt instanceof Free) {
+                    for (String freed : ((Free) stmt).getVariables()) {
+                        String variable = absNameOf(function, freed);
+                        live.remove(variable);
+                    }
+                } else if (stmt instanceof Call && ((Call) stmt).isValid() && functions.containsKey(((Call) stmt).getFunction())) {
+                    for (String callee : reachable(((Call) stmt).getFunction(), functions)) {
+                        for (String variable : allocs.getOrDefault(callee, Collections.emptySet())) {
+                            live.forEach(other -> pairs.add(pairOf(other, variable)));
+                        }
+                    }
+                }
+            }
+        }
+
+        List<String> overlaps = new ArrayList<>();
+
+        for (List<String> pair : pairs) {
+            Block block = blocks.get(pair.get(0));
+            Block other = blocks.get(pair.get(1));
+
+            if (block != null && other != null && block.getSegment().equals(other.getSegment()) && block.overlaps(other)) {
+                overlaps.add(pair + " at " + block.getOffset() + "+" + block.getSize() + " and " + other.getOffset() + "+" + other.getSize());
+            }
+        }
+
+        return overlaps;
+    }
+
+    private static Set<String> reachable(String name, Map<String, Function> functions) {
+        Set<String> reached = new LinkedHashSet<>(Collections.singleton(name));
+        Deque<String> pending = new ArrayDeque<>(reached);
+
+        while (!pending.isEmpty()) {
+            for (Object stmt : functions.get(pending.poll()).getStmts()) {
+                if (stmt instanceof Call && ((Call) stmt).isValid() && functions.containsKey(((Call) stmt).getFunction()) && reached.add(((Call) stmt).getFunction())) {
+                    pending.add(((Call) stmt).getFunction());
+                }
+            }
+        }
+
+        return reached;
+    }
+
+    private static List<String> pairOf(String variable, String other) {
+        return variable.compareTo(other) < 0 ? Arrays.asList(variable, other) : Arrays.asList(other, variable);
+    }
+}
@@ -0,0 +1,172 @@
+package com.parisoft.pa65.heap;
+
+import com.parisoft.pa65.pojo.Alloc;
+import com.parisoft.pa65.pojo.Block;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static java.util.Comparator.comparing;
+import static java.util.Comparator.reverseOrder;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.Assert.assertEquals;
+
+// The treap against a plain list of the allocated blocks: after each arrange() the heap must be the allocated blocks
+// sorted by offset, finished first, with the free spaces between them, and every query must find what a walk of that
+// list finds.
+public class BlockListTest {
+
+    private static final int SPACE = 200;
+
+    @Test
+    public void matchesListModel() {
+        for (long seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            BlockList heap = new BlockList(true);
+            List<Block> model = new ArrayList<>();
+            Set<Integer> offsets = new HashSet<>(); // distinct, so the order of the model is the only one
+            int variables = 0;
+
+            for (int step = 0; step < 300; step++) {
+                for (int change = random.nextInt(4); change >= 0; change--) {
+                    int op = model.isEmpty() ? 0 : random.nextInt(5);
+
+                    if (op == 0 && offsets.size() < SPACE) {
+                        Block block = newBlock(variables++, random.nextInt(8) + 1);
+                        block.setOffset(freeOffset(random, offsets));
+                        block.setFinished(random.nextBoolean());
+                        heap.add(random.nextInt(heap.size() + 1), block);
+                        model.add(block);
+                    } else if (op == 1) {
+                        Block block = model.remove(random.nextInt(model.size()));
+                        offsets.remove(block.getOffset());
+                        heap.remove(block);
+                    } else if (op == 2) {
+                        Block block = model.get(random.nextInt(model.size()));
+                        offsets.remove(block.getOffset());
+                        block.setOffset(freeOffset(random, offsets));
+                        heap.update(block);
+                    } else if (op == 3) {
+                        Block block = model.get(random.nextInt(model.size()));
+                        block.setFinished(!block.isFinished());
+                        heap.update(block);
+                    }
+                }
+
+                heap.arrange();
+                assertEquals("seed " + seed + ", step " + step, describe(expected(model)), describe(heap.stream().collect(toList())));
+                checkQueries(heap, model, random);
+
+                if (random.nextInt(3) == 0) { // takes the beginning of a free block
+                    Block block = newBlock(variables++, random.nextInt(8) + 1);
+                    List<Block> blocks = heap.stream().collect(toList());
+                    int index = firstIndex(blocks, 0, free -> free.isFree() && free.getSize() >= block.getSize());
+                    heap.allocBefore(index, block);
+                    offsets.add(block.getOffset());
+                    model.add(block);
+                    heap.arrange();
+                    assertEquals("seed " + seed + ", step " + step, describe(expected(model)), describe(heap.stream().collect(toList())));
+                }
+            }
+        }
+    }
+
+    private static void checkQueries(BlockList heap, List<Block> model, Random random) {
+        List<Block> blocks = heap.stream().collect(toList());
+
+        for (int i = 0; i < blocks.size(); i++) {
+            assertEquals(i, heap.indexOf(blocks.get(i)));
+        }
+
+        for (Block block : model) {
+            assertEquals(block, heap.get(block.getVariable()));
+            assertEquals(model.stream().filter(other -> other.getFunction().equals(block.getFunction())).collect(toSet()), heap.getAll(block.getFunction()));
+        }
+
+        for (int query = 0; query < 20; query++) {
+            int from = random.nextInt(blocks.size());
+            int size = random.nextInt(10) + 1;
+            int end = random.nextInt(SPACE + 20);
+            int limit = random.nextInt(SPACE + 20);
+
+            assertEquals(firstIndex(blocks, from, free -> free.isFree() && free.getSize() >= size), heap.indexOfFree(from, size));
+            assertEquals(firstIndex(blocks, from, free -> free.isFree() && free.getOffsetPlusSize() >= end), heap.indexOfFreeReaching(from, end));
+            assertEquals(firstIndex(blocks, from, free -> free.isFree() && free.getSize() >= size && free.getOffset() + size <= limit),
+                         heap.indexOfFreeBefore(from, size, limit));
+
+            Block probe = newBlock(-1, size);
+            probe.setOffset(random.nextInt(SPACE));
+
+            for (boolean finished : new boolean[]{false, true}) {
+                assertEquals(blocks.stream().filter(other -> other.isNotFree() && other.isFinished() == finished && other.overlaps(probe)).collect(toList()),
+                             heap.overlapping(probe, finished));
+            }
+        }
+    }
+
+    private static int firstIndex(List<Block> blocks, int from, Predicate<Block> match) {
+        for (int i = from; i < blocks.size(); i++) {
+            if (match.test(blocks.get(i))) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static List<Block> expected(List<Block> model) {
+        List<Block> sorted = new ArrayList<>(model);
+        sorted.sort(comparing(Block::getOffset).thenComparing(Block::isFinished, reverseOrder()));
+        List<Block> blocks = new ArrayList<>();
+        int end = 0;
+
+        for (Block block : sorted) {
+            if (block.getOffset() > end) {
+                blocks.add(freeBlock(end, block.getOffset() - end));
+            }
+
+            blocks.add(block);
+            end = block.getOffsetPlusSize();
+        }
+
+        blocks.add(freeBlock(end, Integer.MAX_VALUE));
+
+        return blocks;
+    }
+
+    private static List<String> describe(List<Block> blocks) {
+        return blocks.stream()
+                .map(block -> block.isFree()
+                        ? "free " + block.getOffset() + (block.getOffsetPlusSize() == Integer.MAX_VALUE ? "+" : ":" + block.getSize())
+                        : block.getVariable() + " " + block.getOffset() + ":" + block.getSize() + (block.isFinished() ? " finished" : ""))
+                .collect(toList());
+    }
+
+    private static int freeOffset(Random random, Set<Integer> offsets) {
+        int offset;
+
+        do {
+            offset = random.nextInt(SPACE);
+        } while (!offsets.add(offset));
+
+        return offset;
+    }
+
+    private static Block newBlock(int variable, int size) {
+        return new Block(new Alloc("RAM", "f" + Math.floorMod(variable, 5) + "::v" + variable, size));
+    }
+
+    private static Block freeBlock(int offset, int size) {
+        Block block = new Block();
+        block.setOffset(offset);
+        block.setSize(size);
+
+        return block;
+    }
+}
@@ -0,0 +1,102 @@
+package com.parisoft.pa65.heap;
+
+import com.parisoft.pa65.pojo.Alloc;
+import com.parisoft.pa65.pojo.Block;
+import com.parisoft.pa65.util.SymbolTable;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// The branch and bound against every offset of every block, on segments small enough to try them all.
+public class PackingTest {
+
+    @Test
+    public void findsTheSmallestLayout() {
+        for (long seed = 0; seed < 300; seed++) {
+            Random random = new Random(seed);
+            SymbolTable symbols = new SymbolTable();
+            List<BitSet> interferences = new ArrayList<>();
+            List<Block> segment = new ArrayList<>();
+            int end = 0;
+
+            for (int i = random.nextInt(6) + 1; i > 0; i--) {
+                Block block = new Block(new Alloc("RAM", "f::v" + segment.size(), random.nextInt(5)));
+                block.setOffset(end); // one after the other, so the layout packed is valid
+                end += block.getSize();
+                symbols.idOf(block.getVariable());
+                interferences.add(new BitSet());
+                segment.add(block);
+            }
+
+            for (int i = 0; i < segment.size(); i++) {
+                for (int j = 0; j < i; j++) {
+                    if (random.nextInt(3) > 0) {
+                        interferences.get(random.nextBoolean() ? i : j).set(random.nextBoolean() ? j : i); // either direction
+                    }
+                }
+            }
+
+            int smallest = smallest(segment, interferences, 0, new int[segment.size()], 0, end);
+            Packing packing = new Packing(symbols, interferences, segment, SECONDS.toNanos(10));
+            packing.pack(2);
+
+            assertEquals("seed " + seed, smallest, packing.getSize());
+            assertEquals("seed " + seed, smallest, Heap.sizeOf(segment));
+            assertTrue("seed " + seed, packing.isOptimal());
+            assertTrue("seed " + seed, packing.getLowerBound() <= smallest);
+
+            for (int i = 0; i < segment.size(); i++) {
+                for (int j = 0; j < i; j++) {
+                    if (interfere(interferences, i, j) && segment.get(i).getSize() > 0 && segment.get(j).getSize() > 0) { // no bytes to share otherwise
+                        assertFalse("seed " + seed, segment.get(i).overlaps(segment.get(j)));
+                    }
+                }
+            }
+        }
+    }
+
+    // the size of the smallest layout, trying every offset below the best size found of each block in turn
+    private static int smallest(List<Block> segment, List<BitSet> interferences, int index, int[] offsets, int size, int best) {
+        if (index == segment.size()) {
+            return size;
+        }
+
+        int length = segment.get(index).getSize();
+
+        for (int offset = 0; Math.max(size, offset + length) < best; offset++) {
+            if (length > 0 && clear(segment, interferences, index, offsets, offset)) {
+                offsets[index] = offset;
+                best = smallest(segment, interferences, index + 1, offsets, Math.max(size, offset + length), best);
+            } else if (length == 0) {
+                return smallest(segment, interferences, index + 1, offsets, size, best);
+            }
+        }
+
+        return best;
+    }
+
+    private static boolean clear(List<Block> segment, List<BitSet> interferences, int index, int[] offsets, int offset) {
+        for (int other = 0; other < index; other++) {
+            int otherSize = segment.get(other).getSize();
+
+            if (otherSize > 0 && interfere(interferences, index, other)
+                    && offset < offsets[other] + otherSize && offsets[other] < offset + segment.get(index).getSize()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean interfere(List<BitSet> interferences, int i, int j) {
+        return interferences.get(i).get(j) || interferences.get(j).get(i);
+    }
+}
@@ -0,0 +1,52 @@
+package com.parisoft.pa65.output;
+
+import com.parisoft.pa65.PA65;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScopesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void putsScopesAfterTheScopesTheyReferTo() throws IOException {
+        String scopes = scopesOf(".func c", ".palloc .bss, x, 1", ".pref y, b::x", "\trts", ".endfunc",
+                                 ".func b", ".palloc .bss, x, 1", ".pref y, a::x", "\trts", ".endfunc",
+                                 ".func a", ".palloc .bss, x, 1", "\trts", ".endfunc");
+
+        assertTrue(scopes, scopes.indexOf(".scope a") < scopes.indexOf(".scope b"));
+        assertTrue(scopes, scopes.indexOf(".scope b") < scopes.indexOf(".scope c"));
+    }
+
+    @Test
+    public void reportsCyclicChains() throws IOException {
+        try {
+            scopesOf(".func a", ".palloc .bss, x, 1", ".pref y, b::x", "\trts", ".endfunc",
+                     ".func b", ".palloc .bss, x, 1", ".pref w, a::x", "\trts", ".endfunc");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Cyclic .pref chain between scopes: a::y -> b::x, b::w -> a::x", e.getMessage());
+        }
+    }
+
+    private String scopesOf(String... lines) throws IOException {
+        File file = folder.newFile("main.s");
+        Files.write(file.toPath(), Arrays.asList(lines));
+        PA65 pa65 = new PA65(Collections.singletonList(file));
+        pa65.createHeap();
+
+        return new Scopes(pa65.getHeap()).toString();
+    }
+}
@@ -0,0 +1,98 @@
+package com.parisoft.pa65.parser;
+
+import com.parisoft.pa65.pojo.SourceFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ParseCacheTest {
+
+    private static final String SOURCE = String.join("\n",
+            ".linecont+",
+            ".func main",
+            ".palloc .zeropage, ptr, 2",
+            ".palloc \"RAM1\", buffer, 16",
+            ".pref arg, sub::value",
+            "\tjsr sub",
+            ".pfree buffer",
+            "\tldx ptr",
+            "\tjtx table",
+            ".endfunc",
+            "",
+            ".func sub",
+            ".palloc .bss, value, 1",
+            "\tjmp other",
+            ".endfunc",
+            "",
+            ".ftable table, {\\",
+            "\tsub-1,\\",
+            "\tother-1\\",
+            "}",
+            "");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void loadsWhatWasParsed() throws IOException {
+        File file = source();
+        ParseCache cache = new ParseCache(folder.newFolder("cache"));
+        SourceFile parsed = new SourceParser(false, cache).parse(file);
+        SourceFile cached = new SourceParser(false, cache).parse(file);
+
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertEquals(describe(parsed), describe(cached));
+        assertEquals(describe(new SourceParser().parse(file)), describe(cached));
+    }
+
+    @Test
+    public void missesAnotherVersion() throws IOException {
+        File file = source();
+        File dir = folder.newFolder("cache");
+        ParseCache cache = new ParseCache(dir);
+        new SourceParser(false, cache).parse(file);
+        String key = cache.keyOf(file);
+
+        try (RandomAccessFile entry = new RandomAccessFile(new File(dir, key), "rw")) {
+            entry.seek(4); // after the magic number
+            entry.writeInt(SourceParser.VERSION + 1);
+        }
+
+        assertNull(cache.load(key, file));
+        assertNotNull(new SourceParser(false, cache).parse(file)); // parsed again and stored over the old entry
+        assertNotNull(cache.load(key, file));
+    }
+
+    @Test
+    public void keyChangesWithTheContent() throws IOException {
+        File file = source();
+        ParseCache cache = new ParseCache(folder.newFolder("cache"));
+        String key = cache.keyOf(file);
+
+        assertEquals(key, cache.keyOf(file));
+        Files.write(file.toPath(), Arrays.asList(".func main", "\trts", ".endfunc"));
+        assertNull(cache.load(cache.keyOf(file), file));
+    }
+
+    private File source() throws IOException {
+        File file = folder.newFile("main.s");
+        Files.write(file.toPath(), SOURCE.getBytes());
+
+        return file;
+    }
+
+    private static String describe(SourceFile source) {
+        return source.getFunctions() + " " + source.getTables() + " " + source.getLines();
+    }
+}